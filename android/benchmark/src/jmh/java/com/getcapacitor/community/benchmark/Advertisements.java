@@ -0,0 +1,59 @@
+package com.getcapacitor.community.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Builds synthetic raw advertisements as a nearby peer would put them on air.
+ */
+final class Advertisements {
+
+    static final UUID SERVICE_UUID = UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+
+    private Advertisements() {}
+
+    static UUID[] uuids(int count, long seed) {
+        Random random = new Random(seed);
+
+        UUID[] uuids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+
+        return uuids;
+    }
+
+    static byte[] payload(int length, long seed) {
+        byte[] payload = new byte[length];
+
+        new Random(seed).nextBytes(payload);
+
+        return payload;
+    }
+
+    // Flags, the 16-bit service UUID list and the beacon UUID as 128-bit service data.
+    static byte[] advertisement(UUID uuid, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(3 + 4 + 18 + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.put((byte) 2).put((byte) 0x01).put((byte) 0x06);
+
+        buffer.put((byte) 3).put((byte) 0x03).putShort((short) (SERVICE_UUID.getMostSignificantBits() >>> 32));
+
+        buffer.put((byte) (17 + payload.length)).put((byte) 0x21);
+        buffer.putLong(uuid.getLeastSignificantBits()).putLong(uuid.getMostSignificantBits());
+        buffer.put(payload);
+
+        return buffer.array();
+    }
+
+    static byte[][] advertisements(UUID[] uuids, int payloadLength) {
+        byte[][] advertisements = new byte[uuids.length][];
+        for (int i = 0; i < uuids.length; i++) {
+            advertisements[i] = advertisement(uuids[i], payload(payloadLength, i));
+        }
+
+        return advertisements;
+    }
+}
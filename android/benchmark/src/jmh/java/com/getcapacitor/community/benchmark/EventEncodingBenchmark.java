@@ -0,0 +1,80 @@
+package com.getcapacitor.community.benchmark;
+
+import com.getcapacitor.community.EventEncoder;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The event object Nearby builds for onFound and onLost, up to the string handed to the bridge.
+ *
+ * Runs the EventEncoder which Nearby ships, with org.json and java.util.Base64 standing in for JSObject and
+ * android.util.Base64.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventEncodingBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    int beacons;
+
+    @Param({ "0", "20", "200" })
+    int payloadLength;
+
+    private UUID[] uuids;
+    private byte[][] payloads;
+
+    // Without room for any entry, so every event is built and encoded again.
+    private final EventEncoder<JSONObject> uncached = newEncoder(0, 0);
+
+    // Same bounds as Nearby.
+    private final EventEncoder<JSONObject> cached = newEncoder(256 * 1024, 128 * 1024);
+
+    private int next;
+
+    private static EventEncoder<JSONObject> newEncoder(long eventCacheWeight, long contentCacheWeight) {
+        return new EventEncoder<>(JSONObject::new, data -> Base64.getEncoder().encodeToString(data), eventCacheWeight, contentCacheWeight);
+    }
+
+    @Setup
+    public void setup() {
+        uuids = Advertisements.uuids(beacons, 42);
+
+        payloads = new byte[beacons][];
+        for (int i = 0; i < beacons; i++) {
+            payloads[i] = Advertisements.payload(payloadLength, i);
+        }
+    }
+
+    @Benchmark
+    public String event() {
+        int index = next;
+        if (++next == uuids.length) {
+            next = 0;
+        }
+
+        // The bridge serializes the event before it is posted to the web view.
+        return uncached.toEvent(uuids[index], payloads[index]).toString();
+    }
+
+    // Re-emission of an event which has been built before, as long as it is still cached.
+    @Benchmark
+    public String cachedEvent() {
+        int index = next;
+        if (++next == uuids.length) {
+            next = 0;
+        }
+
+        return cached.toEvent(uuids[index], payloads[index]).toString();
+    }
+}
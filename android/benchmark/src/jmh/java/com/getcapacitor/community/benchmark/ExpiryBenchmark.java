@@ -0,0 +1,86 @@
+package com.getcapacitor.community.benchmark;
+
+import com.getcapacitor.community.BeaconTracker;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Liveness bookkeeping: sweeping a stable neighborhood, and beacons coming and going.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExpiryBenchmark {
+
+    private static final long TTL_MILLIS = 10000;
+    private static final long TICK_MILLIS = 1000;
+
+    @Param({ "10", "100", "1000", "10000" })
+    int beacons;
+
+    private byte[][] advertisements;
+
+    private BeaconTracker tracker;
+
+    private long now;
+    private int lost;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        UUID[] uuids = Advertisements.uuids(beacons, 42);
+        advertisements = Advertisements.advertisements(uuids, 8);
+
+        tracker =
+            new BeaconTracker(
+                Advertisements.SERVICE_UUID,
+                TTL_MILLIS,
+                TICK_MILLIS,
+                new BeaconTracker.Listener() {
+                    @Override
+                    public void onLost(UUID uuid, byte[] data) {
+                        lost++;
+                    }
+                }
+            );
+
+        now = System.currentTimeMillis();
+    }
+
+    // Every beacon is seen once per tick, so the sweep only re-buckets.
+    @Benchmark
+    public boolean stableTick() {
+        for (byte[] advertisement : advertisements) {
+            tracker.ingest(advertisement, now);
+        }
+
+        now += TICK_MILLIS;
+
+        return tracker.sweep(now);
+    }
+
+    // Every beacon is found, then swept tick by tick until it is lost.
+    @Benchmark
+    public int foundAndLost() {
+        for (byte[] advertisement : advertisements) {
+            tracker.ingest(advertisement, now);
+        }
+
+        long until = now + TTL_MILLIS + TICK_MILLIS;
+        while (now < until) {
+            now += TICK_MILLIS;
+
+            tracker.sweep(now);
+        }
+
+        return lost;
+    }
+}
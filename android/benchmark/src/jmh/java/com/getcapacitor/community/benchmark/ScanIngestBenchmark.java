@@ -0,0 +1,73 @@
+package com.getcapacitor.community.benchmark;
+
+import com.getcapacitor.community.AdvertisementParser;
+import com.getcapacitor.community.BeaconTracker;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Scan results for beacons which are already known, the path taken by almost every advertisement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScanIngestBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    int beacons;
+
+    @Param({ "8" })
+    int payloadLength;
+
+    private byte[][] advertisements;
+
+    private BeaconTracker tracker;
+    private final AdvertisementParser parser = new AdvertisementParser();
+
+    private int next;
+    private long now;
+
+    @Setup
+    public void setup() {
+        UUID[] uuids = Advertisements.uuids(beacons, 42);
+        advertisements = Advertisements.advertisements(uuids, payloadLength);
+
+        tracker = new BeaconTracker(Advertisements.SERVICE_UUID, 10000, 1000, new BeaconTracker.Listener() {});
+
+        now = System.currentTimeMillis();
+
+        // Every beacon is known before measuring.
+        for (byte[] advertisement : advertisements) {
+            tracker.ingest(advertisement, now);
+        }
+    }
+
+    @Benchmark
+    public void sighting() {
+        byte[] advertisement = advertisements[next];
+        if (++next == advertisements.length) {
+            next = 0;
+            now++;
+        }
+
+        tracker.ingest(advertisement, now);
+    }
+
+    @Benchmark
+    public int parse() {
+        byte[] advertisement = advertisements[next];
+        if (++next == advertisements.length) {
+            next = 0;
+        }
+
+        return parser.parse(advertisement);
+    }
+}
@@ -0,0 +1,193 @@
+package com.getcapacitor.community;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Parses the service UUIDs and service data out of a raw advertisement without allocating.
+ *
+ * The results are kept in primitive arrays which are reused between calls, service data is referenced by offset and
+ * length into the parsed buffer. Instances are not thread-safe.
+ *
+ * https://www.bluetooth.com/specifications/assigned-numbers/generic-access-profile/
+ */
+public class AdvertisementParser {
+
+    // Incomplete and complete list of 16-bit service class UUIDs.
+    private static final int SERVICE_UUIDS_16_BIT_PARTIAL = 0x02;
+    private static final int SERVICE_UUIDS_16_BIT_COMPLETE = 0x03;
+    // Incomplete and complete list of 32-bit service class UUIDs.
+    private static final int SERVICE_UUIDS_32_BIT_PARTIAL = 0x04;
+    private static final int SERVICE_UUIDS_32_BIT_COMPLETE = 0x05;
+    // Incomplete and complete list of 128-bit service class UUIDs.
+    private static final int SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+    private static final int SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+    // Service data with a 16-bit, 32-bit and 128-bit UUID.
+    private static final int SERVICE_DATA_16_BIT = 0x16;
+    private static final int SERVICE_DATA_32_BIT = 0x20;
+    private static final int SERVICE_DATA_128_BIT = 0x21;
+
+    // Bluetooth Base UUID 00000000-0000-1000-8000-00805F9B34FB.
+    private static final long BASE_UUID_MOST_SIG_BITS = 0x0000000000001000L;
+    private static final long BASE_UUID_LEAST_SIG_BITS = 0x800000805F9B34FBL;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] mostSigBits = new long[INITIAL_CAPACITY];
+    private long[] leastSigBits = new long[INITIAL_CAPACITY];
+    private int[] dataOffset = new int[INITIAL_CAPACITY];
+    private int[] dataLength = new int[INITIAL_CAPACITY];
+
+    private int count;
+
+    /**
+     * Parses the advertisement and returns the number of services found.
+     * Services with data are reported before services which are only listed by UUID.
+     */
+    public int parse(byte[] bytes) {
+        count = 0;
+
+        if (bytes == null) {
+            return 0;
+        }
+
+        // Service data first, they carry a payload.
+        walk(bytes, true);
+        walk(bytes, false);
+
+        return count;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long mostSigBits(int index) {
+        return mostSigBits[index];
+    }
+
+    public long leastSigBits(int index) {
+        return leastSigBits[index];
+    }
+
+    // Returns the offset of the service data into the parsed buffer, or -1 if the service has no data.
+    public int dataOffset(int index) {
+        return dataOffset[index];
+    }
+
+    public int dataLength(int index) {
+        return dataLength[index];
+    }
+
+    public boolean hasData(int index) {
+        return dataOffset[index] >= 0;
+    }
+
+    public UUID uuid(int index) {
+        return new UUID(mostSigBits[index], leastSigBits[index]);
+    }
+
+    private void walk(byte[] bytes, boolean serviceData) {
+        int position = 0;
+
+        while (position < bytes.length) {
+            int length = bytes[position] & 0xFF;
+            if (length == 0) {
+                // Significant part ends here, the rest is padding.
+                break;
+            }
+
+            int end = position + 1 + length;
+            if (end > bytes.length) {
+                // Truncated structure.
+                break;
+            }
+
+            int type = bytes[position + 1] & 0xFF;
+            int start = position + 2;
+
+            if (serviceData) {
+                switch (type) {
+                    case SERVICE_DATA_16_BIT:
+                        if (end - start >= 2) {
+                            add(shortUuid(uint16(bytes, start)), BASE_UUID_LEAST_SIG_BITS, start + 2, end - start - 2);
+                        }
+                        break;
+                    case SERVICE_DATA_32_BIT:
+                        if (end - start >= 4) {
+                            add(shortUuid(uint32(bytes, start)), BASE_UUID_LEAST_SIG_BITS, start + 4, end - start - 4);
+                        }
+                        break;
+                    case SERVICE_DATA_128_BIT:
+                        if (end - start >= 16) {
+                            add(int64(bytes, start + 8), int64(bytes, start), start + 16, end - start - 16);
+                        }
+                        break;
+                }
+            } else {
+                switch (type) {
+                    case SERVICE_UUIDS_16_BIT_PARTIAL:
+                    case SERVICE_UUIDS_16_BIT_COMPLETE:
+                        for (int offset = start; offset + 2 <= end; offset += 2) {
+                            add(shortUuid(uint16(bytes, offset)), BASE_UUID_LEAST_SIG_BITS, -1, 0);
+                        }
+                        break;
+                    case SERVICE_UUIDS_32_BIT_PARTIAL:
+                    case SERVICE_UUIDS_32_BIT_COMPLETE:
+                        for (int offset = start; offset + 4 <= end; offset += 4) {
+                            add(shortUuid(uint32(bytes, offset)), BASE_UUID_LEAST_SIG_BITS, -1, 0);
+                        }
+                        break;
+                    case SERVICE_UUIDS_128_BIT_PARTIAL:
+                    case SERVICE_UUIDS_128_BIT_COMPLETE:
+                        for (int offset = start; offset + 16 <= end; offset += 16) {
+                            add(int64(bytes, offset + 8), int64(bytes, offset), -1, 0);
+                        }
+                        break;
+                }
+            }
+
+            position = end;
+        }
+    }
+
+    private void add(long msb, long lsb, int offset, int length) {
+        if (count == mostSigBits.length) {
+            grow();
+        }
+
+        mostSigBits[count] = msb;
+        leastSigBits[count] = lsb;
+        dataOffset[count] = offset;
+        dataLength[count] = length;
+
+        count++;
+    }
+
+    private void grow() {
+        int capacity = mostSigBits.length << 1;
+
+        mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+        leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+        dataOffset = Arrays.copyOf(dataOffset, capacity);
+        dataLength = Arrays.copyOf(dataLength, capacity);
+    }
+
+    private static long shortUuid(long value) {
+        return (value << 32) | BASE_UUID_MOST_SIG_BITS;
+    }
+
+    // Advertisement fields are little-endian.
+
+    private static long uint16(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+
+    private static long uint32(byte[] bytes, int offset) {
+        return uint16(bytes, offset) | (uint16(bytes, offset + 2) << 16);
+    }
+
+    private static long int64(byte[] bytes, int offset) {
+        return uint32(bytes, offset) | (uint32(bytes, offset + 4) << 32);
+    }
+}
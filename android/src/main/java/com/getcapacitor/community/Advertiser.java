@@ -1,42 +1,91 @@
 package com.getcapacitor.community;
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
 import android.os.Handler;
 import android.os.ParcelUuid;
 import android.util.Log;
+import androidx.annotation.RequiresApi;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 public class Advertiser {
 
-    private static Advertiser instance = null;
-
     private final BluetoothAdapter adapter;
 
-    private final UUID serviceUUID;
+    private UUID serviceUUID;
 
     Integer advertiseMode = AdvertiseSettings.ADVERTISE_MODE_BALANCED;
     Integer txPowerLevel = AdvertiseSettings.ADVERTISE_TX_POWER_HIGH;
 
+    // Extended advertising (Bluetooth 5), used where the controller supports it.
+    Boolean extendedAdvertising = false;
+    Integer primaryPhy = BluetoothDevice.PHY_LE_1M;
+    Integer secondaryPhy = BluetoothDevice.PHY_LE_1M;
+    // Advertising interval of extended advertisements, derived from the advertise mode if not set.
+    Integer advertiseIntervalMillis = null;
+
     private BluetoothLeAdvertiser advertiser;
     private AdvertiseCallback advertiseCallback;
 
+    private AdvertisingSetCallback advertisingSetCallback;
+    private AdvertisingSet advertisingSet;
+
     private boolean mAdvertising;
 
-    private final Handler handler = new Handler();
+    // Time each fragment of a large payload is advertised for.
+    Integer fragmentIntervalMillis = 1000;
+
+    // Largest advertisement, without extended advertising.
+    private static final int MAX_ADVERTISEMENT_LENGTH = 31;
+    // Largest extended advertisement which is not chained over several packets.
+    private static final int MAX_EXTENDED_ADVERTISEMENT_LENGTH = 251;
+
+    // Prebuilt settings and publications, by configuration.
+    private static final int PUBLICATION_CACHE_WEIGHT = 16 * 1024;
+
+    private final Map<Integer, AdvertiseSettings> settingsCache = new HashMap<>();
+    private final Map<Long, AdvertisingSetParameters> parametersCache = new HashMap<>();
+    private final PayloadCache<String, Publication> publicationCache = new PayloadCache<>(PUBLICATION_CACHE_WEIGHT);
+
+    private AdvertiseSettings advertiseSettings;
+
+    // The publication on air, and the one taking over while an update is in flight.
+    private Publication publication;
+    private Publication pendingPublication;
+    private int payloadIndex;
+
+    private Callback updateCallback;
+
+    // Update requested while another one is in flight, only the latest is kept.
+    private Beacon queuedBeacon;
+    private Callback queuedCallback;
+
+    private int messageId;
+
+    // Owns the rotation and the timers, advertising callbacks are handed off to it.
+    private final Handler handler = Worker.newHandler();
     private Runnable runnable;
+    private final Runnable rotator = this::rotate;
 
-    public static synchronized Advertiser getInstance(BluetoothAdapter adapter, UUID serviceUUID) {
-        if (instance == null) {
-            instance = new Advertiser(adapter, serviceUUID);
-        }
+    private final Metrics metrics = Metrics.getInstance();
 
-        return instance;
-    }
+    // When the running advertisement was requested, to measure how long the controller takes to start it.
+    private long startedAt;
+
+    // When nothing was advertised anymore during a handover, and how long that took the last time.
+    private volatile long gapStartedAt;
+    private double lastGapMillis;
 
     Advertiser(BluetoothAdapter adapter, UUID serviceUUID) {
         this.adapter = adapter;
@@ -44,6 +93,10 @@ public class Advertiser {
         this.serviceUUID = serviceUUID;
     }
 
+    public UUID getServiceUUID() {
+        return serviceUUID;
+    }
+
     public Integer getAdvertiseMode() {
         return advertiseMode;
     }
@@ -60,6 +113,46 @@ public class Advertiser {
         this.txPowerLevel = txPowerLevel;
     }
 
+    public Integer getFragmentIntervalMillis() {
+        return fragmentIntervalMillis;
+    }
+
+    public void setFragmentIntervalMillis(Integer fragmentIntervalMillis) {
+        this.fragmentIntervalMillis = fragmentIntervalMillis;
+    }
+
+    public Boolean getExtendedAdvertising() {
+        return extendedAdvertising;
+    }
+
+    public void setExtendedAdvertising(Boolean extendedAdvertising) {
+        this.extendedAdvertising = extendedAdvertising;
+    }
+
+    public Integer getPrimaryPhy() {
+        return primaryPhy;
+    }
+
+    public void setPrimaryPhy(Integer primaryPhy) {
+        this.primaryPhy = primaryPhy;
+    }
+
+    public Integer getSecondaryPhy() {
+        return secondaryPhy;
+    }
+
+    public void setSecondaryPhy(Integer secondaryPhy) {
+        this.secondaryPhy = secondaryPhy;
+    }
+
+    public Integer getAdvertiseIntervalMillis() {
+        return advertiseIntervalMillis;
+    }
+
+    public void setAdvertiseIntervalMillis(Integer advertiseIntervalMillis) {
+        this.advertiseIntervalMillis = advertiseIntervalMillis;
+    }
+
     public void start(Beacon beacon) {
         start(beacon, null, null);
     }
@@ -80,6 +173,8 @@ public class Advertiser {
         if (advertiser == null || !isBluetoothAvailable()) {
             int errorCode = AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED;
 
+            metrics.advertiseFailures.record(errorCode);
+
             if (callback != null) {
                 callback.onFailure(errorCode, advertiseFailed(errorCode));
             }
@@ -87,75 +182,730 @@ public class Advertiser {
             return;
         }
 
-        // The AdvertiseSettings provide a way to adjust advertising preferences for each Bluetooth LE advertisement instance.
-        AdvertiseSettings advertiseSettings = new AdvertiseSettings.Builder()
-            // Set advertise mode to control the advertising power and latency.
-            .setAdvertiseMode(advertiseMode)
-            // Set advertise TX power level to control the transmission power level for the advertising.
-            .setTxPowerLevel(txPowerLevel)
-            // Limit advertising to a given amount of time.
-            // .setTimeout(30 * 1000)  // May not exceed 180000 milliseconds. A value of 0 will disable the time limit.
-            // Set whether the advertisement type should be connectable or non-connectable.
-            .setConnectable(false)
-            .build();
+        advertiseSettings = settings();
+
+        metrics.advertiseStarts.increment();
+        startedAt = System.nanoTime();
+
+        if (isExtendedAdvertisingSupported()) {
+            startExtended(beacon, ttlSeconds, callback);
+        } else {
+            startLegacy(beacon, ttlSeconds, callback);
+        }
+    }
+
+    private void startLegacy(Beacon beacon, Integer ttlSeconds, Callback callback) {
+        try {
+            publication = publication(beacon, false);
+        } catch (IllegalArgumentException e) {
+            onDataTooLarge(e, callback);
+            return;
+        }
+
+        payloadIndex = 0;
+
+        if (advertiseCallback == null) {
+            advertiseCallback = newAdvertiseCallback(false, ttlSeconds, callback);
+        }
+
+        // java.lang.IllegalArgumentException: Legacy advertising data too big
+        // java.lang.IllegalArgumentException: Advertising data too big
+        advertiser.startAdvertising(advertiseSettings, publication.advertiseData, publication.payload(0), advertiseCallback);
+    }
+
+    // Bluetooth LE advertising callbacks, used to deliver advertising operation status.
+    // https://developer.android.com/reference/android/bluetooth/le/AdvertiseCallback
+    private AdvertiseCallback newAdvertiseCallback(boolean handover, Integer ttlSeconds, Callback callback) {
+        return new AdvertiseCallback() {
+            private boolean started;
+
+            @Override
+            // Callback triggered in response to BluetoothLeAdvertiser#startAdvertising indicating that the advertising has been started successfully.
+            public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+                super.onStartSuccess(settingsInEffect);
+
+                // Legacy advertising callbacks are always delivered on the main looper.
+                Worker.handOff(handler, this::started);
+            }
+
+            private void started() {
+                if (started) {
+                    // Started the next fragment.
+                    return;
+                }
+
+                started = true;
+
+                if (handover) {
+                    onHandedOver(this);
+                } else {
+                    onStarted(ttlSeconds, callback);
+                }
+            }
+
+            @Override
+            // Callback when advertising could not be started.
+            public void onStartFailure(int errorCode) {
+                Log.e("AdvertiseCallback", String.format("onStartFailure(errorCode=%d)", errorCode));
+
+                super.onStartFailure(errorCode);
+
+                Worker.handOff(handler, () -> failed(errorCode));
+            }
+
+            private void failed(int errorCode) {
+                if (handover && !started) {
+                    onHandOverFailed(this, errorCode);
+                    return;
+                }
+
+                stop();
+
+                metrics.advertiseFailures.record(errorCode);
+
+                if (callback != null) {
+                    callback.onFailure(errorCode, advertiseFailed(errorCode));
+                }
+            }
+        };
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void startExtended(Beacon beacon, Integer ttlSeconds, Callback callback) {
+        try {
+            publication = publication(beacon, true);
+        } catch (IllegalArgumentException e) {
+            onDataTooLarge(e, callback);
+            return;
+        }
+
+        payloadIndex = 0;
+
+        // https://developer.android.com/reference/android/bluetooth/le/AdvertisingSetCallback
+        advertisingSetCallback =
+            new AdvertisingSetCallback() {
+                @Override
+                public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+                    super.onAdvertisingSetStarted(set, txPower, status);
+
+                    if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                        Log.w("AdvertisingSetCallback", String.format("onAdvertisingSetStarted(status=%d)", status));
+
+                        fallBack(beacon, ttlSeconds, callback);
+                        return;
+                    }
+
+                    advertisingSet = set;
+
+                    onStarted(ttlSeconds, callback);
+                }
+
+                @Override
+                public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+                    super.onAdvertisingDataSet(set, status);
+
+                    if (pendingPublication == null) {
+                        // Moved on to the next fragment.
+                        if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                            Log.w("AdvertisingSetCallback", String.format("onAdvertisingDataSet(status=%d)", status));
+                        }
+                        return;
+                    }
+
+                    if (status == AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                        onUpdated();
+                    } else {
+                        // The previous data is still advertised.
+                        onUpdateFailed(status);
+                    }
+                }
+            };
+
+        try {
+            // The callbacks are delivered on the worker thread.
+            advertiser.startAdvertisingSet(parameters(), publication.payload(0), null, null, null, advertisingSetCallback, handler);
+        } catch (IllegalArgumentException e) {
+            Log.w("Advertiser", "startAdvertisingSet", e);
+
+            fallBack(beacon, ttlSeconds, callback);
+        }
+    }
+
+    // Falls back to legacy advertising if the extended advertisement could not be started.
+    private void fallBack(Beacon beacon, Integer ttlSeconds, Callback callback) {
+        if (advertisingSetCallback != null) {
+            if (isBluetoothAvailable()) {
+                advertiser.stopAdvertisingSet(advertisingSetCallback);
+            }
+
+            advertisingSetCallback = null;
+        }
+
+        startLegacy(beacon, ttlSeconds, callback);
+    }
+
+    private void onStarted(Integer ttlSeconds, Callback callback) {
+        mAdvertising = true;
+
+        metrics.advertiseLatency.record((System.nanoTime() - startedAt) / 1000);
+
+        if (gapStartedAt != 0) {
+            // Back on air after a restart.
+            handedOver();
+        }
+
+        startRotation();
+
+        if (ttlSeconds != null) {
+            startTimer(ttlSeconds, callback);
+        }
+
+        if (callback != null) {
+            callback.onSuccess(advertiseSettings);
+        }
+    }
+
+    private void onDataTooLarge(IllegalArgumentException e, Callback callback) {
+        int errorCode = AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE;
+
+        metrics.advertiseFailures.record(errorCode);
+
+        if (callback != null) {
+            callback.onFailure(errorCode, e.getMessage());
+        }
+    }
+
+    /**
+     * Update
+     */
+
+    /**
+     * Replaces the beacon of the running advertisement, keeping its settings and timer.
+     *
+     * Extended advertisements are changed in place. Legacy advertisements are restarted, the new one is started
+     * before the previous one is stopped where the controller runs several advertisements at once.
+     */
+    public void update(Beacon beacon, Callback callback) {
+        if (!mAdvertising) {
+            start(beacon, callback);
+            return;
+        }
+
+        if (pendingPublication != null) {
+            if (queuedCallback != null) {
+                // Superseded by the newer beacon.
+                queuedCallback.onSuccess(advertiseSettings);
+            }
+
+            queuedBeacon = beacon;
+            queuedCallback = callback;
+            return;
+        }
+
+        boolean extended = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && advertisingSet != null;
+
+        Publication next;
+        try {
+            next = publication(beacon, extended);
+        } catch (IllegalArgumentException e) {
+            onDataTooLarge(e, callback);
+            return;
+        }
+
+        handler.removeCallbacks(rotator);
+
+        pendingPublication = next;
+        updateCallback = callback;
+
+        if (extended) {
+            // Completes in onAdvertisingDataSet.
+            advertisingSet.setAdvertisingData(next.payload(0));
+        } else {
+            AdvertiseCallback successor = newAdvertiseCallback(true, null, null);
+
+            if (!adapter.isMultipleAdvertisementSupported()) {
+                // Only one advertisement at a time, so the previous one has to go first.
+                gapStartedAt = System.nanoTime();
+                advertiser.stopAdvertising(advertiseCallback);
+
+                advertiseCallback = successor;
+            }
+
+            advertiser.startAdvertising(advertiseSettings, next.advertiseData, next.payload(0), successor);
+        }
+    }
+
+    private void onHandedOver(AdvertiseCallback successor) {
+        if (pendingPublication == null) {
+            // Stopped in the meantime.
+            advertiser.stopAdvertising(successor);
+            return;
+        }
+
+        AdvertiseCallback previous = advertiseCallback;
+
+        advertiseCallback = successor;
+
+        if (previous != null && previous != successor && isBluetoothAvailable()) {
+            advertiser.stopAdvertising(previous);
+        }
+
+        onUpdated();
+    }
+
+    private void onHandOverFailed(AdvertiseCallback successor, int errorCode) {
+        if (pendingPublication == null) {
+            return;
+        }
+
+        if (advertiseCallback == successor) {
+            // The previous advertisement has been stopped already, nothing is advertised anymore.
+            Callback callback = updateCallback;
+
+            stop();
+
+            metrics.advertiseFailures.record(errorCode);
+
+            if (callback != null) {
+                callback.onFailure(errorCode, advertiseFailed(errorCode));
+            }
+            return;
+        }
+
+        if (errorCode == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+            // No advertisement to spare for the handover, so the previous one has to go first.
+            AdvertiseCallback retry = newAdvertiseCallback(true, null, null);
+
+            gapStartedAt = System.nanoTime();
+            advertiser.stopAdvertising(advertiseCallback);
+
+            advertiseCallback = retry;
+
+            advertiser.startAdvertising(advertiseSettings, pendingPublication.advertiseData, pendingPublication.payload(0), retry);
+            return;
+        }
+
+        onUpdateFailed(errorCode);
+    }
+
+    private void onUpdated() {
+        Callback callback = updateCallback;
+
+        publication = pendingPublication;
+        payloadIndex = 0;
+
+        pendingPublication = null;
+        updateCallback = null;
+
+        handedOver();
+
+        startRotation();
+
+        if (callback != null) {
+            callback.onSuccess(advertiseSettings);
+        }
+
+        updateQueued();
+    }
+
+    private void onUpdateFailed(int errorCode) {
+        Callback callback = updateCallback;
+
+        pendingPublication = null;
+        updateCallback = null;
+
+        gapStartedAt = 0;
+
+        // Carry on with the previous publication.
+        startRotation();
+
+        metrics.advertiseFailures.record(errorCode);
+
+        if (callback != null) {
+            callback.onFailure(errorCode, advertiseFailed(errorCode));
+        }
+
+        updateQueued();
+    }
+
+    // Records how long nothing was advertised while handing over, none if the advertisements overlapped.
+    private void handedOver() {
+        long gapNanos = gapStartedAt != 0 ? System.nanoTime() - gapStartedAt : 0;
+
+        gapStartedAt = 0;
+
+        lastGapMillis = gapNanos / 1000000.0;
+
+        metrics.advertiseHandovers.increment();
+        metrics.advertiseHandoverGap.record(gapNanos / 1000);
+    }
+
+    // How long nothing was advertised during the last handover, in milliseconds.
+    public double getLastGapMillis() {
+        return lastGapMillis;
+    }
+
+    private void updateQueued() {
+        if (queuedBeacon != null) {
+            Beacon beacon = queuedBeacon;
+            Callback callback = queuedCallback;
+
+            queuedBeacon = null;
+            queuedCallback = null;
+
+            update(beacon, callback);
+        }
+    }
+
+    /**
+     * Reconfigure
+     */
+
+    /**
+     * Changes the namespace, advertise mode and TX power, of the running advertisement if any.
+     *
+     * The beacon on air is handed over like an update. Advertising sets cannot change their parameters while they
+     * run, so they are restarted instead, and nothing is advertised until the controller has started them again.
+     *
+     * @return whether the advertisement is handed over, the callback is only called if so
+     */
+    public boolean reconfigure(UUID serviceUUID, Integer advertiseMode, Integer txPowerLevel, Beacon beacon, Callback callback) {
+        boolean namespaceChanged = serviceUUID != null && !serviceUUID.equals(this.serviceUUID);
+        boolean settingsChanged =
+            (advertiseMode != null && !advertiseMode.equals(this.advertiseMode)) ||
+            (txPowerLevel != null && !txPowerLevel.equals(this.txPowerLevel));
+
+        if (namespaceChanged) {
+            this.serviceUUID = serviceUUID;
+
+            // Publications are built for a namespace.
+            publicationCache.clear();
+        }
+
+        if (advertiseMode != null) {
+            this.advertiseMode = advertiseMode;
+        }
+
+        if (txPowerLevel != null) {
+            this.txPowerLevel = txPowerLevel;
+        }
+
+        if (!mAdvertising || beacon == null || (!namespaceChanged && !settingsChanged)) {
+            // Takes effect with the next start.
+            return false;
+        }
+
+        if (settingsChanged && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && advertisingSet != null) {
+            restart(beacon, callback);
+            return true;
+        }
+
+        // The successor of a legacy advertisement is started with the new settings.
+        advertiseSettings = settings();
+
+        update(beacon, callback);
+        return true;
+    }
+
+    private void restart(Beacon beacon, Callback callback) {
+        long stoppedAt = System.nanoTime();
+
+        start(beacon, null, callback);
+
+        if (publication != null) {
+            // Measured until the controller has started it again.
+            gapStartedAt = stoppedAt;
+        }
+    }
+
+    /**
+     * Publication
+     */
+
+    // Returns the prebuilt publication of the beacon, built on first use.
+    private Publication publication(Beacon beacon, boolean extended) {
+        byte[] data = beacon.data();
+
+        String key = (extended ? "extended:" : "legacy:") + beacon.uuid();
+
+        Publication cached = publicationCache.get(key, data);
+
+        // The same message id with different content would be taken for content already received.
+        if (cached != null && (publication == null || publication == cached || publication.messageId != cached.messageId)) {
+            metrics.publicationCacheHits.increment();
+            return cached;
+        }
+
+        metrics.publicationCacheMisses.increment();
+
+        Publication built = extended && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+            ? buildExtended(beacon.uuid(), data)
+            : buildLegacy(beacon.uuid(), data);
+
+        // Roughly the fragments and the data built from them.
+        publicationCache.put(key, data, built, 2 * data.length + 64);
+
+        return built;
+    }
+
+    private Publication buildLegacy(UUID uuid, byte[] data) {
+        byte[][] fragments = fragment(data, MAX_ADVERTISEMENT_LENGTH - serviceDataLength(serviceUUID, 0));
 
         // Advertise data packet container for Bluetooth LE advertising.
         // This represents the data to be advertised as well as the scan response data for active scans.
         AdvertiseData advertiseData = new AdvertiseData.Builder()
             // Add a service UUID to advertise data.
             .addServiceUuid(new ParcelUuid(serviceUUID))
-            .addServiceUuid(new ParcelUuid(beacon.uuid()))
+            .addServiceUuid(new ParcelUuid(uuid))
             // Whether the transmission power level should be included in the advertise packet.
             .setIncludeTxPowerLevel(false)
             // Set whether the device name should be included in advertise packet.
             .setIncludeDeviceName(false)
             .build();
 
-        if (advertiseCallback == null) {
-            // Bluetooth LE advertising callbacks, used to deliver advertising operation status.
-            // https://developer.android.com/reference/android/bluetooth/le/AdvertiseCallback
-            advertiseCallback =
-                new AdvertiseCallback() {
-                    @Override
-                    // Callback triggered in response to BluetoothLeAdvertiser#startAdvertising indicating that the advertising has been started successfully.
-                    public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-                        super.onStartSuccess(settingsInEffect);
-
-                        mAdvertising = true;
-
-                        if (ttlSeconds != null) {
-                            startTimer(ttlSeconds, callback);
-                        }
+        // The payload is sent in the scan response, as service data of the namespace.
+        // Payloads which do not fit are split into fragments, which are advertised in turn.
+        AdvertiseData[] payloads = null;
 
-                        if (callback != null) {
-                            callback.onSuccess(settingsInEffect);
-                        }
-                    }
+        if (fragments != null) {
+            payloads = new AdvertiseData[fragments.length];
 
-                    @Override
-                    // Callback when advertising could not be started.
-                    public void onStartFailure(int errorCode) {
-                        Log.e("AdvertiseCallback", String.format("onStartFailure(errorCode=%d)", errorCode));
+            for (int i = 0; i < fragments.length; i++) {
+                payloads[i] =
+                    new AdvertiseData.Builder()
+                        .addServiceData(new ParcelUuid(serviceUUID), fragments[i])
+                        .setIncludeTxPowerLevel(false)
+                        .setIncludeDeviceName(false)
+                        .build();
+            }
+        }
 
-                        super.onStartFailure(errorCode);
+        return new Publication(messageId, advertiseData, payloads);
+    }
 
-                        stop();
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private Publication buildExtended(UUID uuid, byte[] data) {
+        int maxLength = Math.min(adapter.getLeMaximumAdvertisingDataLength(), MAX_EXTENDED_ADVERTISEMENT_LENGTH);
 
-                        if (callback != null) {
-                            callback.onFailure(errorCode, advertiseFailed(errorCode));
-                        }
+        // Both UUIDs are listed in the same advertisement as the service data.
+        int listLength = (2 + uuidLength(serviceUUID)) + (2 + uuidLength(uuid));
+
+        byte[][] fragments = fragment(data, maxLength - listLength - serviceDataLength(serviceUUID, 0));
+
+        AdvertiseData[] payloads = new AdvertiseData[fragments != null ? fragments.length : 1];
+
+        for (int i = 0; i < payloads.length; i++) {
+            AdvertiseData.Builder builder = new AdvertiseData.Builder()
+                .addServiceUuid(new ParcelUuid(serviceUUID))
+                .addServiceUuid(new ParcelUuid(uuid))
+                .setIncludeTxPowerLevel(false)
+                .setIncludeDeviceName(false);
+
+            if (fragments != null) {
+                builder.addServiceData(new ParcelUuid(serviceUUID), fragments[i]);
+            }
+
+            payloads[i] = builder.build();
+        }
+
+        return new Publication(messageId, null, payloads);
+    }
+
+    // Returns the fragments of the payload, or null if there is no payload.
+    private byte[][] fragment(byte[] data, int maxFragmentLength) {
+        if (data.length == 0) {
+            return null;
+        }
+
+        byte[][] fragments = MessageTransport.fragment(data, ++messageId, maxFragmentLength);
+
+        for (byte[] fragment : fragments) {
+            metrics.encodedBytes.add(fragment.length);
+        }
+
+        return fragments;
+    }
+
+    private AdvertiseSettings settings() {
+        int key = (advertiseMode << 8) | txPowerLevel;
+
+        AdvertiseSettings settings = settingsCache.get(key);
+        if (settings == null) {
+            // The AdvertiseSettings provide a way to adjust advertising preferences for each Bluetooth LE advertisement instance.
+            settings =
+                new AdvertiseSettings.Builder()
+                    // Set advertise mode to control the advertising power and latency.
+                    .setAdvertiseMode(advertiseMode)
+                    // Set advertise TX power level to control the transmission power level for the advertising.
+                    .setTxPowerLevel(txPowerLevel)
+                    // Limit advertising to a given amount of time.
+                    // .setTimeout(30 * 1000)  // May not exceed 180000 milliseconds. A value of 0 will disable the time limit.
+                    // Set whether the advertisement type should be connectable or non-connectable.
+                    .setConnectable(false)
+                    .build();
+
+            settingsCache.put(key, settings);
+        }
+
+        return settings;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private AdvertisingSetParameters parameters() {
+        int interval = advertisingInterval();
+        int txPower = advertisingTxPower();
+        int primaryPhy = primaryPhy();
+        int secondaryPhy = secondaryPhy();
+
+        long key = ((long) interval << 16) | ((txPower & 0xFF) << 8) | (primaryPhy << 4) | secondaryPhy;
+
+        AdvertisingSetParameters parameters = parametersCache.get(key);
+        if (parameters == null) {
+            // https://developer.android.com/reference/android/bluetooth/le/AdvertisingSetParameters.Builder
+            parameters =
+                new AdvertisingSetParameters.Builder()
+                    // Extended advertisements carry more data than the legacy 31 bytes.
+                    .setLegacyMode(false)
+                    // Extended advertisements cannot be scannable and carry advertising data, the payload is in the advertisement itself.
+                    .setScannable(false)
+                    .setConnectable(false)
+                    .setInterval(interval)
+                    .setTxPowerLevel(txPower)
+                    .setPrimaryPhy(primaryPhy)
+                    .setSecondaryPhy(secondaryPhy)
+                    .build();
+
+            parametersCache.put(key, parameters);
+        }
+
+        return parameters;
+    }
+
+    private void startRotation() {
+        handler.removeCallbacks(rotator);
+
+        if (mAdvertising && publication != null && publication.size() > 1) {
+            handler.postDelayed(rotator, fragmentIntervalMillis);
+        }
+    }
+
+    // Moves on to the next fragment.
+    private void rotate() {
+        if (!mAdvertising || advertiser == null || !isBluetoothAvailable()) {
+            return;
+        }
+
+        payloadIndex = (payloadIndex + 1) % publication.size();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && advertisingSet != null) {
+            // Extended advertisements are changed while running.
+            advertisingSet.setAdvertisingData(publication.payload(payloadIndex));
+        } else if (advertiseCallback != null) {
+            // Legacy advertisements cannot be changed while running.
+            advertiser.stopAdvertising(advertiseCallback);
+            advertiser.startAdvertising(advertiseSettings, publication.advertiseData, publication.payload(payloadIndex), advertiseCallback);
+        }
+
+        handler.postDelayed(rotator, fragmentIntervalMillis);
+    }
+
+    private boolean isExtendedAdvertisingSupported() {
+        return (
+            Boolean.TRUE.equals(extendedAdvertising) &&
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O &&
+            adapter.isLeExtendedAdvertisingSupported()
+        );
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private int primaryPhy() {
+        // The primary channel only uses 1M or Coded PHY.
+        if (primaryPhy != null && primaryPhy == BluetoothDevice.PHY_LE_CODED && adapter.isLeCodedPhySupported()) {
+            return BluetoothDevice.PHY_LE_CODED;
+        }
+
+        return BluetoothDevice.PHY_LE_1M;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private int secondaryPhy() {
+        if (secondaryPhy != null) {
+            switch (secondaryPhy) {
+                case BluetoothDevice.PHY_LE_2M:
+                    if (adapter.isLe2MPhySupported()) {
+                        return BluetoothDevice.PHY_LE_2M;
                     }
-                };
+                    break;
+                case BluetoothDevice.PHY_LE_CODED:
+                    if (adapter.isLeCodedPhySupported()) {
+                        return BluetoothDevice.PHY_LE_CODED;
+                    }
+                    break;
+            }
         }
 
-        // java.lang.IllegalArgumentException: Legacy advertising data too big
-        // java.lang.IllegalArgumentException: Advertising data too big
-        advertiser.startAdvertising(advertiseSettings, advertiseData, advertiseCallback);
+        return BluetoothDevice.PHY_LE_1M;
+    }
+
+    // Interval in units of 0.625 milliseconds.
+    private int advertisingInterval() {
+        if (advertiseIntervalMillis != null) {
+            long interval = advertiseIntervalMillis * 8L / 5;
+
+            return (int) Math.max(AdvertisingSetParameters.INTERVAL_MIN, Math.min(AdvertisingSetParameters.INTERVAL_MAX, interval));
+        }
+
+        switch (advertiseMode) {
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY:
+                return AdvertisingSetParameters.INTERVAL_LOW;
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_POWER:
+                return AdvertisingSetParameters.INTERVAL_HIGH;
+            default:
+                return AdvertisingSetParameters.INTERVAL_MEDIUM;
+        }
+    }
+
+    // TX power in dBm.
+    private int advertisingTxPower() {
+        switch (txPowerLevel) {
+            case AdvertiseSettings.ADVERTISE_TX_POWER_ULTRA_LOW:
+                return AdvertisingSetParameters.TX_POWER_ULTRA_LOW;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_LOW:
+                return AdvertisingSetParameters.TX_POWER_LOW;
+            case AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM:
+                return AdvertisingSetParameters.TX_POWER_MEDIUM;
+            default:
+                return AdvertisingSetParameters.TX_POWER_HIGH;
+        }
+    }
+
+    // Length of a service data structure with the given UUID and data length.
+    private static int serviceDataLength(UUID uuid, int dataLength) {
+        return 2 + uuidLength(uuid) + dataLength;
+    }
+
+    // Advertisements use the shortest form of a UUID based on the Bluetooth Base UUID.
+    private static int uuidLength(UUID uuid) {
+        if (uuid.getLeastSignificantBits() != 0x800000805F9B34FBL) {
+            return 16;
+        }
+
+        long mostSigBits = uuid.getMostSignificantBits();
+        if ((mostSigBits & 0xFFFF0000FFFFFFFFL) == 0x1000L) {
+            return 2;
+        }
+        if ((mostSigBits & 0xFFFFFFFFL) == 0x1000L) {
+            return 4;
+        }
+
+        return 16;
     }
 
     public void stop() {
         stopTimer();
 
+        handler.removeCallbacks(rotator);
+
         if (advertiser != null && advertiseCallback != null) {
             if (isBluetoothAvailable()) {
                 advertiser.stopAdvertising(advertiseCallback);
@@ -164,6 +914,24 @@ public class Advertiser {
             advertiseCallback = null;
         }
 
+        if (advertiser != null && advertisingSetCallback != null) {
+            if (isBluetoothAvailable() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                advertiser.stopAdvertisingSet(advertisingSetCallback);
+            }
+
+            advertisingSetCallback = null;
+            advertisingSet = null;
+        }
+
+        publication = null;
+        pendingPublication = null;
+        updateCallback = null;
+
+        gapStartedAt = 0;
+
+        queuedBeacon = null;
+        queuedCallback = null;
+
         mAdvertising = false;
     }
 
@@ -171,6 +939,35 @@ public class Advertiser {
         return mAdvertising;
     }
 
+    // Whether the current advertisement uses extended advertising.
+    public boolean isExtendedAdvertising() {
+        return mAdvertising && advertisingSet != null;
+    }
+
+    // Number of advertisements the payload is split into.
+    public int getFragmentCount() {
+        return publication != null ? Math.max(1, publication.size()) : 0;
+    }
+
+    /**
+     * Returns the time between two advertising events.
+     */
+    public long getIntervalMillis() {
+        if (isExtendedAdvertising()) {
+            return advertisingInterval() * 5L / 8;
+        }
+
+        // Intervals of legacy advertising, as configured by the Bluetooth stack.
+        switch (advertiseMode) {
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY:
+                return 100;
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_POWER:
+                return 1000;
+            default:
+                return 250;
+        }
+    }
+
     public boolean isBluetoothAvailable() {
         return (adapter != null && adapter.isEnabled() && adapter.getState() == BluetoothAdapter.STATE_ON);
     }
@@ -227,6 +1024,38 @@ public class Advertiser {
         public void onExpired() {}
     }
 
+    /**
+     * Publication
+     */
+
+    // The data built for a beacon, reused when the same content is published again.
+    static class Publication {
+
+        final int messageId;
+
+        // The advertisement listing the UUIDs, only used by legacy advertising.
+        final AdvertiseData advertiseData;
+
+        // One per fragment, null if there is no payload to send.
+        final AdvertiseData[] payloads;
+
+        Publication(int messageId, AdvertiseData advertiseData, AdvertiseData[] payloads) {
+            this.messageId = messageId;
+
+            this.advertiseData = advertiseData;
+
+            this.payloads = payloads;
+        }
+
+        int size() {
+            return payloads != null ? payloads.length : 0;
+        }
+
+        AdvertiseData payload(int index) {
+            return payloads != null ? payloads[index] : null;
+        }
+    }
+
     /**
      * Beacon
      */
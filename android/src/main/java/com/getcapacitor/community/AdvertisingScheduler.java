@@ -0,0 +1,147 @@
+package com.getcapacitor.community;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares a limited number of advertising slots between publications by time slicing.
+ *
+ * Each slice, the slots go to the publications picked by smooth weighted round robin, so a publication with twice
+ * the weight is on air about twice as often, and the picks are spread out evenly. If there are enough slots for all
+ * publications, all of them stay on air. The time each publication has spent on air is accounted for, to report
+ * its share of the advertising time. This is not thread-safe, callers need to hold their own lock.
+ */
+public class AdvertisingScheduler<K> {
+
+    private final Map<K, Entry> entries = new LinkedHashMap<>();
+
+    public void add(K key, int weight, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(now);
+            entries.put(key, entry);
+        }
+
+        entry.weight = Math.max(1, weight);
+    }
+
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int getWeight(K key) {
+        Entry entry = entries.get(key);
+
+        return entry != null ? entry.weight : 0;
+    }
+
+    /**
+     * Picks the publications for the next slice, which starts now.
+     */
+    public List<K> next(int slots, long now) {
+        int total = 0;
+
+        for (Entry entry : entries.values()) {
+            if (entry.onAirSince >= 0) {
+                entry.onAirMillis += now - entry.onAirSince;
+                entry.onAirSince = -1;
+            }
+
+            entry.picked = false;
+
+            total += entry.weight;
+        }
+
+        List<K> keys = new ArrayList<>(Math.min(slots, entries.size()));
+
+        if (entries.size() <= slots) {
+            keys.addAll(entries.keySet());
+        } else {
+            for (int i = 0; i < slots; i++) {
+                K bestKey = null;
+                Entry best = null;
+
+                for (Map.Entry<K, Entry> candidate : entries.entrySet()) {
+                    Entry entry = candidate.getValue();
+
+                    entry.current += entry.weight;
+
+                    if (!entry.picked && (best == null || entry.current > best.current)) {
+                        bestKey = candidate.getKey();
+                        best = entry;
+                    }
+                }
+
+                best.current -= total;
+                best.picked = true;
+
+                keys.add(bestKey);
+            }
+        }
+
+        for (K key : keys) {
+            entries.get(key).onAirSince = now;
+        }
+
+        return keys;
+    }
+
+    /**
+     * Returns the share of time the publication has been on air since it was added, from 0 to 1.
+     */
+    public double getDutyCycle(K key, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return 0;
+        }
+
+        long elapsed = now - entry.addedAt;
+        if (elapsed <= 0) {
+            return entry.onAirSince >= 0 ? 1 : 0;
+        }
+
+        long onAir = entry.onAirMillis + (entry.onAirSince >= 0 ? now - entry.onAirSince : 0);
+
+        return Math.min(1, (double) onAir / elapsed);
+    }
+
+    /**
+     * Entry
+     */
+
+    private static class Entry {
+
+        int weight = 1;
+
+        // Smooth weighted round robin state.
+        int current;
+        boolean picked;
+
+        final long addedAt;
+
+        long onAirMillis;
+        long onAirSince = -1;
+
+        Entry(long addedAt) {
+            this.addedAt = addedAt;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.getcapacitor.community;
+
+import android.app.PendingIntent;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Scanning through a PendingIntent, which the system keeps running without our process.
+ *
+ * Batches of results are delivered to {@link ScanReceiver}. While the scanner is alive it ingests them like any
+ * other results, otherwise the found beacons are kept up to date in the preferences, so the scanner picks up from
+ * there on the next start. The deliveries are counted next to the results, each result would have been a wakeup of
+ * its own with a scan callback.
+ */
+final class BackgroundScan {
+
+    static final String ACTION_SCAN_RESULT = "com.getcapacitor.community.nearby.SCAN_RESULT";
+
+    private static final String PREFERENCES = "com.getcapacitor.community.nearby.BackgroundScan";
+
+    private static final String KEY_SERVICE_UUID = "serviceUUID";
+    private static final String KEY_TTL_MILLIS = "ttlMillis";
+    private static final String KEY_FILTERS = "filters";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_DELIVERIES = "deliveries";
+    private static final String KEY_RESULTS = "results";
+
+    // PendingIntent.FLAG_MUTABLE, the system adds the results to the intent.
+    private static final int FLAG_MUTABLE = 1 << 25;
+
+    private BackgroundScan() {}
+
+    static PendingIntent pendingIntent(Context context) {
+        Intent intent = new Intent(context, ScanReceiver.class).setAction(ACTION_SCAN_RESULT);
+
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | FLAG_MUTABLE);
+    }
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Remembers what the scan is for, so results can be processed without the scanner.
+     */
+    static void started(Context context, UUID serviceUUID, long ttlMillis, List<BeaconFilter> filters) {
+        preferences(context)
+            .edit()
+            .putString(KEY_SERVICE_UUID, serviceUUID.toString())
+            .putLong(KEY_TTL_MILLIS, ttlMillis)
+            .putString(KEY_FILTERS, encode(filters))
+            .apply();
+    }
+
+    static void stopped(Context context) {
+        preferences(context).edit().remove(KEY_SERVICE_UUID).remove(KEY_FILTERS).remove(KEY_STATE).apply();
+    }
+
+    static boolean isStarted(Context context) {
+        return preferences(context).contains(KEY_SERVICE_UUID);
+    }
+
+    static void save(Context context, byte[] state) {
+        preferences(context).edit().putString(KEY_STATE, Base64.encodeToString(state, Base64.NO_WRAP)).apply();
+    }
+
+    // Returns the saved beacons if they belong to the given namespace.
+    static byte[] load(Context context, UUID serviceUUID) {
+        SharedPreferences preferences = preferences(context);
+
+        String state = preferences.getString(KEY_STATE, null);
+        if (state == null || !serviceUUID.toString().equals(preferences.getString(KEY_SERVICE_UUID, null))) {
+            return null;
+        }
+
+        return Base64.decode(state, Base64.NO_WRAP);
+    }
+
+    static void delivered(Context context, int results) {
+        SharedPreferences preferences = preferences(context);
+
+        preferences
+            .edit()
+            .putLong(KEY_DELIVERIES, preferences.getLong(KEY_DELIVERIES, 0) + 1)
+            .putLong(KEY_RESULTS, preferences.getLong(KEY_RESULTS, 0) + results)
+            .apply();
+    }
+
+    static long getDeliveries(Context context) {
+        return preferences(context).getLong(KEY_DELIVERIES, 0);
+    }
+
+    static long getResults(Context context) {
+        return preferences(context).getLong(KEY_RESULTS, 0);
+    }
+
+    /**
+     * Processes results delivered while the scanner is not running, from a worker thread.
+     */
+    static void process(Context context, List<ScanResult> results) {
+        SharedPreferences preferences = preferences(context);
+
+        String serviceUUID = preferences.getString(KEY_SERVICE_UUID, null);
+        if (serviceUUID == null) {
+            // Left over from a scan which should have been stopped.
+            BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+            BluetoothLeScanner scanner = adapter != null ? adapter.getBluetoothLeScanner() : null;
+            if (scanner != null) {
+                scanner.stopScan(pendingIntent(context));
+            }
+            return;
+        }
+
+        UUID uuid = UUID.fromString(serviceUUID);
+
+        // Beacons are not reported from here, so a plain fixed timeout will do.
+        BeaconTracker tracker = new BeaconTracker(uuid, preferences.getLong(KEY_TTL_MILLIS, 10 * 1000), 1000, null);
+
+        List<BeaconFilter> filters = decode(preferences.getString(KEY_FILTERS, null));
+        tracker.setFilters(filters != null ? filters.toArray(new BeaconFilter[0]) : null);
+
+        long now = System.currentTimeMillis();
+
+        byte[] state = load(context, uuid);
+        if (state != null) {
+            tracker.restore(state, now, false);
+        }
+
+        for (ScanResult result : results) {
+            ScanRecord record = result.getScanRecord();
+            if (record != null) {
+                tracker.ingest(record.getBytes(), result.getRssi(), Scanner.txPower(result, record), Scanner.seenAt(result));
+            }
+        }
+
+        tracker.sweep(now);
+
+        save(context, tracker.save());
+    }
+
+    /**
+     * Filters
+     */
+
+    private static String encode(List<BeaconFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(filters.size());
+
+            for (BeaconFilter filter : filters) {
+                UUID uuid = filter.getUuid();
+
+                out.writeBoolean(uuid != null);
+                if (uuid != null) {
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                }
+
+                writeBytes(out, filter.getData());
+                writeBytes(out, filter.getMask());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP);
+    }
+
+    private static List<BeaconFilter> decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.decode(encoded, Base64.NO_WRAP)))) {
+            int count = in.readInt();
+
+            List<BeaconFilter> filters = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID uuid = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+
+                filters.add(new BeaconFilter(uuid, readBytes(in), readBytes(in)));
+            }
+
+            return filters;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w("BackgroundScan", "Dropping filters which could not be read.", e);
+
+            return null;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes != null ? bytes.length : -1);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readShort();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+package com.getcapacitor.community;
+
+import java.util.UUID;
+
+/**
+ * Matches beacons by UUID and by a masked prefix of their service data, the same way a hardware ScanFilter does.
+ */
+public class BeaconFilter {
+
+    private final UUID uuid;
+
+    private final byte[] data;
+    private final byte[] mask;
+
+    /**
+     * @param uuid the UUID of the beacon, or null to match any beacon
+     * @param data the prefix the service data needs to start with, or null to match any service data
+     * @param mask the bits of the prefix which need to match, or null to match all bits
+     */
+    public BeaconFilter(UUID uuid, byte[] data, byte[] mask) {
+        if (data != null && mask != null && data.length != mask.length) {
+            throw new IllegalArgumentException("serviceData and serviceDataMask need to have the same length");
+        }
+
+        this.uuid = uuid;
+
+        this.data = data;
+        this.mask = mask;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public byte[] getMask() {
+        return mask;
+    }
+
+    /**
+     * Returns whether the beacon matches, the service data is given as a range of the advertisement.
+     * A length of -1 means the beacon has been listed without service data.
+     */
+    public boolean matches(long mostSigBits, long leastSigBits, byte[] bytes, int offset, int length) {
+        if (!matchesUuid(mostSigBits, leastSigBits)) {
+            return false;
+        }
+
+        if (data == null) {
+            return true;
+        }
+
+        if (length < data.length) {
+            return false;
+        }
+
+        for (int i = 0; i < data.length; i++) {
+            int bits = mask != null ? mask[i] : 0xFF;
+
+            if (((bytes[offset + i] ^ data[i]) & bits) != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public boolean matchesUuid(long mostSigBits, long leastSigBits) {
+        return uuid == null || (uuid.getMostSignificantBits() == mostSigBits && uuid.getLeastSignificantBits() == leastSigBits);
+    }
+
+    public static boolean matchesAny(BeaconFilter[] filters, long mostSigBits, long leastSigBits, byte[] bytes, int offset, int length) {
+        for (BeaconFilter filter : filters) {
+            if (filter.matches(mostSigBits, leastSigBits, bytes, offset, length)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the beacon could match any of the filters once its payload is known.
+     */
+    public static boolean mayMatchAny(BeaconFilter[] filters, long mostSigBits, long leastSigBits) {
+        for (BeaconFilter filter : filters) {
+            if (filter.matchesUuid(mostSigBits, leastSigBits)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
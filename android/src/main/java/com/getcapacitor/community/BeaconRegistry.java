@@ -0,0 +1,278 @@
+package com.getcapacitor.community;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent map from a UUID, given as its two long halves, to a value.
+ *
+ * The registry is split into segments, each an open addressing table with linear probing. Reads never lock: a
+ * table is published through a volatile field and its slots are only ever written once, removed slots are marked
+ * with a tombstone and reclaimed when the segment is rebuilt. Writes lock only the segment the key hashes to.
+ */
+public class BeaconRegistry<V> {
+
+    private static final int SEGMENTS = 16;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final Object TOMBSTONE = new Object();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public BeaconRegistry() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(INITIAL_CAPACITY);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long mostSigBits, long leastSigBits) {
+        int hash = hash(mostSigBits, leastSigBits);
+
+        Table table = segmentFor(hash).table;
+
+        int mask = table.mask;
+        for (int index = hash & mask;; index = (index + 1) & mask) {
+            Object value = table.values.get(index);
+            if (value == null) {
+                return null;
+            }
+
+            if (value != TOMBSTONE && table.keys[index << 1] == mostSigBits && table.keys[(index << 1) + 1] == leastSigBits) {
+                return (V) value;
+            }
+        }
+    }
+
+    /**
+     * Associates the value with the key unless the key is already present.
+     *
+     * @return the existing value, or null if the value has been added
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long mostSigBits, long leastSigBits, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+
+        int hash = hash(mostSigBits, leastSigBits);
+
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            Object existing = segment.find(hash, mostSigBits, leastSigBits);
+            if (existing != null) {
+                return (V) existing;
+            }
+
+            segment.insert(hash, mostSigBits, leastSigBits, value);
+
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long mostSigBits, long leastSigBits) {
+        int hash = hash(mostSigBits, leastSigBits);
+
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            return (V) segment.delete(hash, mostSigBits, leastSigBits);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the values of all entries as they were at a single point in time.
+     */
+    public List<V> snapshot() {
+        List<V> values = new ArrayList<>();
+
+        snapshot(0, values);
+
+        return values;
+    }
+
+    // The segment locks are monitors, so they are taken by recursion to be held all at once.
+    @SuppressWarnings("unchecked")
+    private void snapshot(int segmentIndex, List<V> values) {
+        if (segmentIndex < SEGMENTS) {
+            synchronized (segments[segmentIndex]) {
+                snapshot(segmentIndex + 1, values);
+            }
+            return;
+        }
+
+        for (Segment segment : segments) {
+            Table table = segment.table;
+
+            for (int index = 0; index <= table.mask; index++) {
+                Object value = table.values.get(index);
+                if (value != null && value != TOMBSTONE) {
+                    values.add((V) value);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.table = new Table(INITIAL_CAPACITY);
+                segment.size = 0;
+                segment.tombstones = 0;
+            }
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        // Use the high bits to pick the segment, the low bits are used within the table.
+        return segments[(hash >>> 28) & (SEGMENTS - 1)];
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        long h = mostSigBits * 0x9E3779B97F4A7C15L ^ leastSigBits;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Table
+     */
+
+    private static final class Table {
+
+        final long[] keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new long[capacity << 1];
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+
+        volatile Table table;
+
+        volatile int size;
+        int tombstones;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        Object find(int hash, long mostSigBits, long leastSigBits) {
+            int index = indexOf(table, hash, mostSigBits, leastSigBits);
+
+            return index >= 0 ? table.values.get(index) : null;
+        }
+
+        void insert(int hash, long mostSigBits, long leastSigBits, Object value) {
+            Table current = table;
+
+            // Keep the load including tombstones at or below one half.
+            if ((size + tombstones + 1) << 1 > current.mask + 1) {
+                current = rebuild(size + 1);
+            }
+
+            place(current, hash, mostSigBits, leastSigBits, value);
+
+            size++;
+        }
+
+        Object delete(int hash, long mostSigBits, long leastSigBits) {
+            Table current = table;
+
+            int index = indexOf(current, hash, mostSigBits, leastSigBits);
+            if (index < 0) {
+                return null;
+            }
+
+            Object value = current.values.get(index);
+
+            // The slot is never reused, readers might still match on its keys.
+            current.values.set(index, TOMBSTONE);
+
+            size--;
+            tombstones++;
+
+            return value;
+        }
+
+        private Table rebuild(int minSize) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < minSize << 2) {
+                capacity <<= 1;
+            }
+
+            Table current = table;
+            Table next = new Table(capacity);
+
+            for (int index = 0; index <= current.mask; index++) {
+                Object value = current.values.get(index);
+                if (value != null && value != TOMBSTONE) {
+                    long mostSigBits = current.keys[index << 1];
+                    long leastSigBits = current.keys[(index << 1) + 1];
+
+                    place(next, hash(mostSigBits, leastSigBits), mostSigBits, leastSigBits, value);
+                }
+            }
+
+            tombstones = 0;
+
+            // Publish the new table to readers.
+            table = next;
+
+            return next;
+        }
+
+        private static void place(Table table, int hash, long mostSigBits, long leastSigBits, Object value) {
+            int mask = table.mask;
+
+            int index = hash & mask;
+            while (table.values.get(index) != null) {
+                index = (index + 1) & mask;
+            }
+
+            table.keys[index << 1] = mostSigBits;
+            table.keys[(index << 1) + 1] = leastSigBits;
+
+            // The volatile write publishes the keys along with the value.
+            table.values.set(index, value);
+        }
+
+        private static int indexOf(Table table, int hash, long mostSigBits, long leastSigBits) {
+            int mask = table.mask;
+
+            for (int index = hash & mask;; index = (index + 1) & mask) {
+                Object value = table.values.get(index);
+                if (value == null) {
+                    return -1;
+                }
+
+                if (value != TOMBSTONE && table.keys[index << 1] == mostSigBits && table.keys[(index << 1) + 1] == leastSigBits) {
+                    return index;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,741 @@
+package com.getcapacitor.community;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the beacons seen in raw advertisements and decides when they are found and lost.
+ *
+ * This holds no reference to the Android framework, the scanner feeds it advertisement bytes and drives the sweep.
+ * Advertisements must be ingested from one thread at a time, sweeping and queries are safe from any thread.
+ */
+public class BeaconTracker {
+
+    // Only changed from the thread advertisements are ingested on.
+    private long serviceMostSigBits;
+    private long serviceLeastSigBits;
+
+    private final long ttlMillis;
+
+    // How long each beacon may go unseen, the time to live for all of them unless set otherwise.
+    private volatile LostTimeoutPolicy lostTimeout;
+
+    private final Listener listener;
+
+    private final BeaconRegistry<Beacon> beacons = new BeaconRegistry<>();
+
+    // Changes to the found beacons, so they can be listed incrementally.
+    private final ChangeLog changes = new ChangeLog(ChangeLog.DEFAULT_CAPACITY);
+
+    private final ExpiryWheel<Beacon> wheel;
+
+    // Only used from the thread advertisements are ingested on.
+    private final AdvertisementParser parser = new AdvertisementParser();
+
+    // Filters applied in software, if the controller could not take them.
+    private volatile BeaconFilter[] filters;
+
+    private final MessageTransport.Stats transportStats = new MessageTransport.Stats();
+
+    // Estimates the distance of found beacons, or null to skip it.
+    private volatile ProximityEstimator proximity;
+
+    // Sightings kept per beacon, none if 0, within a ceiling on the memory of all histories.
+    private volatile int historyCapacity;
+    private volatile long historyMaxBytes;
+    private final AtomicLong historyBytes = new AtomicLong();
+
+    public BeaconTracker(UUID serviceUUID, long ttlMillis, long tickMillis, Listener listener) {
+        this.serviceMostSigBits = serviceUUID.getMostSignificantBits();
+        this.serviceLeastSigBits = serviceUUID.getLeastSignificantBits();
+
+        this.ttlMillis = ttlMillis;
+        this.lostTimeout = LostTimeoutPolicy.fixed(ttlMillis);
+
+        this.listener = listener;
+
+        this.wheel = new ExpiryWheel<>(tickMillis, (int) (ttlMillis / tickMillis) + 1);
+    }
+
+    public UUID getServiceUUID() {
+        return new UUID(serviceMostSigBits, serviceLeastSigBits);
+    }
+
+    /**
+     * Switches to another namespace, the beacons found in the previous one are reported as lost.
+     *
+     * Must be called from the thread advertisements are ingested on.
+     */
+    public void setServiceUUID(UUID serviceUUID) {
+        if (serviceUUID.getMostSignificantBits() == serviceMostSigBits && serviceUUID.getLeastSignificantBits() == serviceLeastSigBits) {
+            return;
+        }
+
+        List<Beacon> dropped;
+
+        synchronized (wheel) {
+            dropped = beacons.snapshot();
+
+            wheel.clear();
+
+            beacons.clear();
+
+            historyBytes.set(0);
+        }
+
+        serviceMostSigBits = serviceUUID.getMostSignificantBits();
+        serviceLeastSigBits = serviceUUID.getLeastSignificantBits();
+
+        for (Beacon beacon : dropped) {
+            if (beacon.found) {
+                changes.record(beacon.uuid, ChangeLog.REMOVED);
+
+                if (listener != null) {
+                    listener.onLost(beacon.uuid, beacon.data);
+                }
+            }
+        }
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public LostTimeoutPolicy getLostTimeout() {
+        return lostTimeout;
+    }
+
+    /**
+     * Sets how long beacons may go unseen, beacons already tracked pick it up when they are seen next.
+     */
+    public void setLostTimeout(LostTimeoutPolicy lostTimeout) {
+        this.lostTimeout = lostTimeout != null ? lostTimeout : LostTimeoutPolicy.fixed(ttlMillis);
+    }
+
+    public long getTickMillis() {
+        return wheel.getTickMillis();
+    }
+
+    public BeaconFilter[] getFilters() {
+        return filters;
+    }
+
+    /**
+     * Sets the filters a beacon needs to match any of, or null to track all beacons.
+     */
+    public void setFilters(BeaconFilter[] filters) {
+        this.filters = filters != null && filters.length > 0 ? filters : null;
+    }
+
+    public MessageTransport.Stats getTransportStats() {
+        return transportStats;
+    }
+
+    public ProximityEstimator getProximity() {
+        return proximity;
+    }
+
+    public void setProximity(ProximityEstimator proximity) {
+        this.proximity = proximity;
+    }
+
+    public int getHistoryCapacity() {
+        return historyCapacity;
+    }
+
+    public long getHistoryMaxBytes() {
+        return historyMaxBytes;
+    }
+
+    public long getHistoryBytes() {
+        return historyBytes.get();
+    }
+
+    /**
+     * Keeps the given number of sightings per beacon, as long as all histories fit in the given number of bytes.
+     * Beacons beyond the ceiling have no history. Histories already kept are not resized.
+     */
+    public void setHistory(int capacity, long maxBytes) {
+        this.historyCapacity = Math.max(0, capacity);
+        this.historyMaxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Ingests a raw advertisement received at the given time.
+     */
+    public void ingest(byte[] bytes, long seenAt) {
+        ingest(bytes, ProximityEstimator.UNKNOWN, ProximityEstimator.UNKNOWN, seenAt);
+    }
+
+    /**
+     * Ingests a raw advertisement received at the given time, with the signal strength and advertised TX power in dBm
+     * or {@link ProximityEstimator#UNKNOWN}.
+     */
+    public void ingest(byte[] bytes, int rssi, int txPower, long seenAt) {
+        int count = parser.parse(bytes);
+
+        // Our own advertisers send the payload in fragments, as service data of the namespace.
+        int fragment = -1;
+        for (int i = 0; i < count; i++) {
+            if (isService(i) && parser.hasData(i) && parser.dataLength(i) >= MessageTransport.HEADER_LENGTH) {
+                fragment = i;
+                break;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!isService(i)) {
+                sighted(bytes, i, fragment, rssi, txPower, seenAt);
+            }
+        }
+    }
+
+    private boolean isService(int index) {
+        return parser.mostSigBits(index) == serviceMostSigBits && parser.leastSigBits(index) == serviceLeastSigBits;
+    }
+
+    private void sighted(byte[] bytes, int index, int fragment, int rssi, int txPower, long seenAt) {
+        long mostSigBits = parser.mostSigBits(index);
+        long leastSigBits = parser.leastSigBits(index);
+
+        boolean hasData = parser.hasData(index);
+        int offset = parser.dataOffset(index);
+        int length = parser.dataLength(index);
+
+        // Service data of the beacon itself takes precedence over fragments.
+        boolean fragmented = !hasData && fragment >= 0;
+
+        BeaconFilter[] filters = this.filters;
+        if (filters != null) {
+            // Fragmented payloads are matched once the message is complete.
+            boolean matches = fragmented
+                ? BeaconFilter.mayMatchAny(filters, mostSigBits, leastSigBits)
+                : BeaconFilter.matchesAny(filters, mostSigBits, leastSigBits, bytes, offset, hasData ? length : -1);
+
+            if (!matches) {
+                // Dropped like the controller would have.
+                return;
+            }
+        }
+
+        long fingerprint = hasData ? Fingerprint.of(bytes, offset, length) : Fingerprint.NONE;
+
+        // Known beacons are looked up without taking any lock.
+        Beacon beacon = beacons.get(mostSigBits, leastSigBits);
+        if (beacon != null) {
+            beacon.alive(seenAt);
+
+            if (beacon.deadline() + wheel.getTickMillis() < beacon.due) {
+                // The timeout got shorter, the sweeper would only pick that up at the previous deadline.
+                synchronized (wheel) {
+                    if (wheel.isScheduled(beacon)) {
+                        wheel.schedule(beacon, beacon.deadline());
+                    }
+                }
+            }
+
+            if (fragmented) {
+                received(beacon, bytes, parser.dataOffset(fragment), parser.dataLength(fragment), seenAt);
+            } else if (hasData && (!beacon.found || fingerprint != beacon.fingerprint)) {
+                // A listed UUID without service data says nothing about the payload.
+                delivered(beacon, Arrays.copyOfRange(bytes, offset, offset + length), fingerprint);
+            }
+
+            ranged(beacon, rssi, txPower, seenAt);
+            recorded(beacon, rssi, seenAt);
+            return;
+        }
+
+        // Only materialize new beacons.
+        UUID uuid = parser.uuid(index);
+        byte[] data = hasData ? Arrays.copyOfRange(bytes, offset, offset + length) : null;
+
+        beacon = new Beacon(uuid, data, fingerprint, seenAt);
+
+        // Beacons sending fragments are found once the first message is complete.
+        beacon.found = !fragmented;
+
+        synchronized (wheel) {
+            Beacon existing = beacons.putIfAbsent(mostSigBits, leastSigBits, beacon);
+            if (existing != null) {
+                // Another thread added it in the meantime.
+                existing.alive(seenAt);
+                return;
+            }
+
+            boolean idle = wheel.isEmpty();
+
+            wheel.schedule(beacon, beacon.deadline());
+
+            if (idle && listener != null) {
+                listener.onActive();
+            }
+        }
+
+        if (fragmented) {
+            received(beacon, bytes, parser.dataOffset(fragment), parser.dataLength(fragment), seenAt);
+        } else {
+            changes.record(uuid, ChangeLog.ADDED);
+
+            if (listener != null) {
+                listener.onFound(uuid, data);
+            }
+        }
+
+        ranged(beacon, rssi, txPower, seenAt);
+        recorded(beacon, rssi, seenAt);
+    }
+
+    private void received(Beacon beacon, byte[] bytes, int offset, int length, long seenAt) {
+        int messageId = MessageTransport.messageId(bytes, offset);
+
+        MessageTransport.Assembly assembly = beacon.assembly;
+        if (assembly == null || assembly.messageId != messageId) {
+            // A new message, or the content changed before the previous one was complete.
+            assembly = new MessageTransport.Assembly(messageId, MessageTransport.count(bytes, offset), seenAt);
+            beacon.assembly = assembly;
+        }
+
+        if (!assembly.add(bytes, offset, length)) {
+            return;
+        }
+
+        beacon.assembly = null;
+
+        transportStats.record(assembly.count, Math.max(0, seenAt - assembly.startedAt));
+
+        byte[] message = assembly.join();
+
+        BeaconFilter[] filters = this.filters;
+        if (filters != null) {
+            long mostSigBits = beacon.uuid.getMostSignificantBits();
+            long leastSigBits = beacon.uuid.getLeastSignificantBits();
+
+            if (!BeaconFilter.matchesAny(filters, mostSigBits, leastSigBits, message, 0, message.length)) {
+                return;
+            }
+        }
+
+        // Ids wrap and restart with the publisher, so copies of the message we already have are told apart by content.
+        long fingerprint = Fingerprint.of(message);
+        if (!beacon.found || fingerprint != beacon.fingerprint) {
+            delivered(beacon, message, fingerprint);
+        }
+    }
+
+    private void delivered(Beacon beacon, byte[] data, long fingerprint) {
+        beacon.data = data;
+        beacon.fingerprint = fingerprint;
+
+        if (!beacon.found) {
+            beacon.found = true;
+
+            changes.record(beacon.uuid, ChangeLog.ADDED);
+
+            if (listener != null) {
+                listener.onFound(beacon.uuid, data);
+            }
+            return;
+        }
+
+        changes.record(beacon.uuid, ChangeLog.CHANGED);
+
+        if (listener != null) {
+            listener.onUpdated(beacon.uuid, data);
+        }
+    }
+
+    private void ranged(Beacon beacon, int rssi, int txPower, long seenAt) {
+        ProximityEstimator proximity = this.proximity;
+        if (proximity == null || rssi == ProximityEstimator.UNKNOWN) {
+            return;
+        }
+
+        // The filter keeps running while the first message is assembled, but only found beacons are reported.
+        beacon.rssi = ProximityEstimator.rssi(beacon.rssi, beacon.variance, rssi);
+        beacon.variance = ProximityEstimator.variance(beacon.variance);
+
+        if (txPower != ProximityEstimator.UNKNOWN) {
+            beacon.txPower = txPower;
+        }
+
+        if (!beacon.found) {
+            return;
+        }
+
+        double distance = proximity.distance(beacon.rssi, beacon.txPower);
+        int zone = ProximityEstimator.zone(distance);
+
+        if (!proximity.shouldReport(distance, zone, beacon.reportedDistance, beacon.zone, seenAt, beacon.reportedAt)) {
+            return;
+        }
+
+        beacon.zone = zone;
+        beacon.reportedDistance = distance;
+        beacon.reportedAt = seenAt;
+
+        if (listener != null) {
+            listener.onProximity(beacon.uuid, beacon.rssi, distance, zone);
+        }
+    }
+
+    private void recorded(Beacon beacon, int rssi, long seenAt) {
+        SightingHistory history = beacon.history;
+
+        if (history == null) {
+            int capacity = historyCapacity;
+            if (capacity <= 0) {
+                return;
+            }
+
+            long bytes = SightingHistory.bytes(capacity);
+
+            long used;
+            do {
+                used = historyBytes.get();
+                if (used + bytes > historyMaxBytes) {
+                    // No room until other beacons are lost.
+                    return;
+                }
+            } while (!historyBytes.compareAndSet(used, used + bytes));
+
+            history = new SightingHistory(capacity);
+            beacon.history = history;
+        }
+
+        history.record(seenAt, rssi, beacon.fingerprint);
+    }
+
+    /**
+     * Returns the sightings of a beacon since the given time, or null if it is not tracked or has no history.
+     */
+    public SightingHistory.Sightings history(UUID uuid, long sinceMillis) {
+        Beacon beacon = beacons.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (beacon == null || !beacon.found) {
+            return null;
+        }
+
+        SightingHistory history = beacon.history;
+
+        return history != null ? history.since(sinceMillis) : null;
+    }
+
+    /**
+     * Expires the beacons which have not been seen within the time to live.
+     *
+     * @return whether there are beacons left which need to be swept
+     */
+    public boolean sweep(long now) {
+        List<Beacon> expired;
+        boolean active;
+
+        synchronized (wheel) {
+            expired = wheel.advance(now);
+
+            if (expired != null) {
+                for (Beacon beacon : expired) {
+                    beacons.remove(beacon.uuid.getMostSignificantBits(), beacon.uuid.getLeastSignificantBits());
+
+                    SightingHistory history = beacon.history;
+                    if (history != null) {
+                        historyBytes.addAndGet(-SightingHistory.bytes(history.capacity()));
+                    }
+                }
+            }
+
+            active = !wheel.isEmpty();
+        }
+
+        if (expired != null) {
+            for (Beacon beacon : expired) {
+                // Beacons which never completed a message have not been reported.
+                if (beacon.found) {
+                    changes.record(beacon.uuid, ChangeLog.REMOVED);
+
+                    if (listener != null) {
+                        listener.onLost(beacon.uuid, beacon.data);
+                    }
+                }
+            }
+        }
+
+        return active;
+    }
+
+    /**
+     * State
+     */
+
+    // Version of the saved state, which is dropped if it does not match.
+    private static final int STATE_VERSION = 2;
+
+    /**
+     * Saves the found beacons compactly, so they can be restored without waiting for their messages again.
+     */
+    public byte[] save() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            List<Beacon> found = new ArrayList<>();
+            for (Beacon beacon : beacons.snapshot()) {
+                if (beacon.found) {
+                    found.add(beacon);
+                }
+            }
+
+            out.writeByte(STATE_VERSION);
+            out.writeInt(found.size());
+
+            for (Beacon beacon : found) {
+                byte[] data = beacon.data;
+
+                out.writeLong(beacon.uuid.getMostSignificantBits());
+                out.writeLong(beacon.uuid.getLeastSignificantBits());
+                out.writeLong(beacon.lastSeen);
+                out.writeLong(beacon.interval);
+                out.writeShort(data != null ? data.length : -1);
+                if (data != null) {
+                    out.write(data);
+                }
+            }
+        } catch (IOException e) {
+            // Not thrown when writing to memory.
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores saved beacons which have not timed out by now and are not tracked yet, and reports them as found if
+     * asked to. Must be called from the thread advertisements are ingested on.
+     *
+     * @return the number of beacons restored, or -1 if the state could not be read
+     */
+    public int restore(byte[] state, long now, boolean notify) {
+        List<Beacon> restored = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            if (in.readByte() != STATE_VERSION) {
+                return -1;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long mostSigBits = in.readLong();
+                long leastSigBits = in.readLong();
+                long lastSeen = in.readLong();
+                long interval = in.readLong();
+                int length = in.readShort();
+
+                byte[] data = null;
+                if (length >= 0) {
+                    data = new byte[length];
+                    in.readFully(data);
+                }
+
+                Beacon beacon = new Beacon(new UUID(mostSigBits, leastSigBits), data, Fingerprint.of(data), lastSeen);
+                beacon.found = true;
+                beacon.interval = interval;
+                beacon.timeout = lostTimeout.timeout(interval);
+
+                if (beacon.deadline() > now) {
+                    restored.add(beacon);
+                }
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+
+        int added = 0;
+
+        synchronized (wheel) {
+            for (int i = 0; i < restored.size(); i++) {
+                Beacon beacon = restored.get(i);
+
+                if (beacons.putIfAbsent(beacon.uuid.getMostSignificantBits(), beacon.uuid.getLeastSignificantBits(), beacon) != null) {
+                    // Seen since, which is more recent.
+                    restored.set(i, null);
+                    continue;
+                }
+
+                boolean idle = wheel.isEmpty();
+
+                wheel.schedule(beacon, beacon.deadline());
+                added++;
+
+                if (idle && listener != null) {
+                    listener.onActive();
+                }
+            }
+        }
+
+        for (Beacon beacon : restored) {
+            if (beacon != null) {
+                changes.record(beacon.uuid, ChangeLog.ADDED);
+
+                if (notify && listener != null) {
+                    listener.onFound(beacon.uuid, beacon.data);
+                }
+            }
+        }
+
+        return added;
+    }
+
+    public Set<UUID> getBeacons() {
+        Set<UUID> uuids = new HashSet<>();
+
+        for (Beacon beacon : beacons.snapshot()) {
+            if (beacon.found) {
+                uuids.add(beacon.uuid);
+            }
+        }
+
+        return uuids;
+    }
+
+    // Version of the found beacons, which grows with every change to them.
+    public long getVersion() {
+        return changes.getVersion();
+    }
+
+    /**
+     * Returns the found beacons added, removed and changed since the given version, or null if that is too long ago.
+     */
+    public ChangeLog.Delta getChangesSince(long version) {
+        return changes.since(version);
+    }
+
+    /**
+     * Moves the last sightings of all beacons forward by a time during which no beacon could be seen, so it does not
+     * count against their timeouts.
+     *
+     * Must be called from the thread advertisements are ingested on.
+     */
+    public void shift(long millis) {
+        // Deadlines only move forward, the sweeper picks them up when it reaches their buckets.
+        for (Beacon beacon : beacons.snapshot()) {
+            beacon.lastSeen += millis;
+        }
+    }
+
+    public int size() {
+        return beacons.size();
+    }
+
+    public void clear() {
+        synchronized (wheel) {
+            wheel.clear();
+
+            beacons.clear();
+
+            historyBytes.set(0);
+        }
+
+        changes.truncate();
+    }
+
+    /**
+     * Listener
+     */
+
+    public abstract static class Listener {
+
+        public void onFound(UUID uuid, byte[] data) {}
+
+        public void onLost(UUID uuid, byte[] data) {}
+
+        public void onUpdated(UUID uuid, byte[] data) {}
+
+        public void onProximity(UUID uuid, double rssi, double distance, int zone) {}
+
+        // Called while holding the tracker lock when the first beacon needs to be swept.
+        public void onActive() {}
+    }
+
+    /**
+     * Beacon
+     */
+
+    class Beacon extends ExpiryWheel.Entry {
+
+        UUID uuid;
+        volatile byte[] data;
+
+        // Fingerprint of the last payload, compared instead of the payload itself.
+        volatile long fingerprint;
+
+        volatile long lastSeen;
+
+        // Smoothed time between sightings, only used from the thread advertisements are ingested on.
+        long interval;
+
+        volatile long timeout;
+
+        // Whether the beacon has been reported, which waits for the first complete message.
+        volatile boolean found;
+
+        // Only used from the thread advertisements are ingested on.
+        MessageTransport.Assembly assembly;
+
+        // Proximity state, only used from the thread advertisements are ingested on.
+        double rssi;
+        double variance = -1;
+        int txPower = ProximityEstimator.UNKNOWN;
+
+        int zone = ProximityEstimator.ZONE_UNKNOWN;
+        double reportedDistance;
+        long reportedAt;
+
+        // Written from the thread advertisements are ingested on, read by queries.
+        volatile SightingHistory history;
+
+        public Beacon(UUID uuid, byte[] data, long fingerprint, long seenAt) {
+            this.uuid = uuid;
+            this.data = data;
+
+            this.fingerprint = fingerprint;
+
+            this.lastSeen = seenAt;
+
+            this.timeout = lostTimeout.timeout(0);
+        }
+
+        public UUID uuid() {
+            return this.uuid;
+        }
+
+        public byte[] data() {
+            return this.data;
+        }
+
+        @Override
+        protected long deadline() {
+            // Read in the opposite order of writing, so a shorter timeout is never added to the previous sighting.
+            long timeout = this.timeout;
+
+            return this.lastSeen + timeout;
+        }
+
+        public void alive(long seenAt) {
+            // The sweeper picks up the new deadline when it reaches our bucket.
+            if (seenAt > this.lastSeen) {
+                this.interval = LostTimeoutPolicy.interval(this.interval, seenAt - this.lastSeen);
+
+                this.lastSeen = seenAt;
+                this.timeout = lostTimeout.timeout(this.interval);
+            }
+        }
+    }
+}
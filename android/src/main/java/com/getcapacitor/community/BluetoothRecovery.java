@@ -0,0 +1,141 @@
+package com.getcapacitor.community;
+
+import android.bluetooth.BluetoothAdapter;
+import android.os.Handler;
+import android.util.Log;
+import java.util.Random;
+
+/**
+ * Follows the state of the Bluetooth adapter, pausing scanning and publishing while it is off, and re-arming them
+ * once it is back on.
+ *
+ * The adapter reports being on a moment before scans and advertisements can actually be started, so re-arming is
+ * retried with exponential backoff. Half of each delay is random, so apps recovering from the same reset do not
+ * retry in lockstep.
+ */
+public class BluetoothRecovery {
+
+    public static final int RUNNING = 0;
+    public static final int PAUSED = 1;
+    public static final int RECOVERING = 2;
+
+    private static final long BASE_DELAY_MILLIS = 1000;
+    private static final long MAX_DELAY_MILLIS = 30 * 1000;
+
+    private final Scanner scanner;
+    private final Publisher publisher;
+
+    // Owns the state, adapter state changes are handed off to it.
+    private final Handler handler = Worker.newHandler();
+    private final Runnable rearmRunnable = this::rearm;
+
+    private final Random random = new Random();
+
+    private final Metrics metrics = Metrics.getInstance();
+
+    private volatile int state = RUNNING;
+    private int attempt;
+
+    // When Bluetooth was back on, to measure how long re-arming takes.
+    private long onAt;
+
+    // Whether scanning or publishing was interrupted, only then the outage and its recovery are counted.
+    private boolean interrupted;
+
+    public BluetoothRecovery(Scanner scanner, Publisher publisher) {
+        this.scanner = scanner;
+        this.publisher = publisher;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Takes a state of {@link BluetoothAdapter#ACTION_STATE_CHANGED}, from any thread.
+     */
+    public void onStateChanged(int adapterState) {
+        Worker.handOff(handler, () -> changed(adapterState));
+    }
+
+    private void changed(int adapterState) {
+        switch (adapterState) {
+            case BluetoothAdapter.STATE_TURNING_OFF:
+            case BluetoothAdapter.STATE_OFF:
+                pause();
+                break;
+            case BluetoothAdapter.STATE_ON:
+                if (state == PAUSED) {
+                    state = RECOVERING;
+
+                    attempt = 0;
+                    onAt = System.currentTimeMillis();
+
+                    handler.postDelayed(rearmRunnable, delay(attempt));
+                }
+                break;
+        }
+    }
+
+    private void pause() {
+        handler.removeCallbacks(rearmRunnable);
+
+        if (state == RUNNING) {
+            // The publisher is confined to this thread, like the recovery.
+            interrupted = scanner.isScanning() || !scanner.getSubscriptions().isEmpty() || publisher.isPublishing();
+
+            if (interrupted) {
+                metrics.bluetoothOutages.increment();
+            }
+        }
+
+        state = PAUSED;
+
+        // Also pauses again what has been re-armed already, if Bluetooth went off while recovering.
+        scanner.pause();
+        publisher.pause();
+    }
+
+    private void rearm() {
+        if (state != RECOVERING) {
+            return;
+        }
+
+        boolean rearmed;
+        try {
+            // Both are tried, each keeps what it has re-armed.
+            rearmed = scanner.resume() & publisher.resume();
+        } catch (RuntimeException e) {
+            // Bluetooth went off again in the meantime.
+            Log.w("BluetoothRecovery", "Re-arming failed.", e);
+
+            rearmed = false;
+        }
+
+        if (!rearmed) {
+            attempt++;
+
+            metrics.bluetoothRearmRetries.increment();
+
+            handler.postDelayed(rearmRunnable, delay(attempt));
+            return;
+        }
+
+        state = RUNNING;
+
+        long recoveryMillis = System.currentTimeMillis() - onAt;
+
+        Log.i("BluetoothRecovery", String.format("Re-armed %d ms after Bluetooth was back on.", recoveryMillis));
+
+        if (interrupted) {
+            metrics.bluetoothRecoveries.increment();
+            metrics.bluetoothRecoveryTime.record(recoveryMillis * 1000);
+        }
+    }
+
+    private long delay(int attempt) {
+        long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 16));
+
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+}
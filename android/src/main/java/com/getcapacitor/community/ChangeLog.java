@@ -0,0 +1,132 @@
+package com.getcapacitor.community;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The most recent changes to the found beacons, each stamped with the version of the beacons it led to.
+ *
+ * A change is recorded after the beacons reflect it, so beacons listed after reading the version include every
+ * change up to it. Changes beyond the capacity are dropped, asking for changes before those falls back to a full
+ * listing.
+ */
+public class ChangeLog {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public static final int ADDED = 0;
+    public static final int REMOVED = 1;
+    public static final int CHANGED = 2;
+
+    private final long[] mostSigBits;
+    private final long[] leastSigBits;
+    private final byte[] kinds;
+
+    // Index of the next change to write, and the number of changes held.
+    private int head;
+    private int size;
+
+    // Version after the most recent change.
+    private long version;
+
+    public ChangeLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.mostSigBits = new long[capacity];
+        this.leastSigBits = new long[capacity];
+        this.kinds = new byte[capacity];
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized long record(UUID uuid, int kind) {
+        mostSigBits[head] = uuid.getMostSignificantBits();
+        leastSigBits[head] = uuid.getLeastSignificantBits();
+        kinds[head] = (byte) kind;
+
+        head = (head + 1) % kinds.length;
+        if (size < kinds.length) {
+            size++;
+        }
+
+        return ++version;
+    }
+
+    // Drops all changes, for when all beacons are gone at once.
+    public synchronized void truncate() {
+        size = 0;
+        version++;
+    }
+
+    /**
+     * Returns the net changes since the given version, or null if some of them have been dropped.
+     */
+    public synchronized Delta since(long sinceVersion) {
+        if (sinceVersion > version || sinceVersion < version - size) {
+            return null;
+        }
+
+        int capacity = kinds.length;
+        int count = (int) (version - sinceVersion);
+        int first = (head - count + capacity) % capacity;
+
+        // The first and the last change of each beacon decide its net change.
+        Map<UUID, int[]> changes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) % capacity;
+
+            UUID uuid = new UUID(mostSigBits[index], leastSigBits[index]);
+
+            int[] change = changes.get(uuid);
+            if (change == null) {
+                changes.put(uuid, new int[] { kinds[index], kinds[index] });
+            } else {
+                change[1] = kinds[index];
+            }
+        }
+
+        Delta delta = new Delta(version);
+
+        for (Map.Entry<UUID, int[]> entry : changes.entrySet()) {
+            int from = entry.getValue()[0];
+            int to = entry.getValue()[1];
+
+            if (from == ADDED) {
+                // Not there at the given version.
+                if (to != REMOVED) {
+                    delta.added.add(entry.getKey());
+                }
+            } else if (to == REMOVED) {
+                delta.removed.add(entry.getKey());
+            } else {
+                delta.changed.add(entry.getKey());
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * Delta
+     */
+
+    public static class Delta {
+
+        public final long version;
+
+        public final List<UUID> added = new ArrayList<>();
+        public final List<UUID> removed = new ArrayList<>();
+        public final List<UUID> changed = new ArrayList<>();
+
+        Delta(long version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.getcapacitor.community;
+
+import android.os.Handler;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+/**
+ * Coalesces beacon events into frames which are delivered as a single event.
+ *
+ * A frame is flushed when the interval since its first event has elapsed or when it holds the maximum number of events,
+ * whichever comes first.
+ */
+public class EventBatcher {
+
+    private final long intervalMillis;
+    private final int maxSize;
+
+    private final Callback callback;
+
+    private final Handler handler = Worker.newHandler();
+    private final Runnable runnable = this::flush;
+
+    private JSArray found = new JSArray();
+    private JSArray lost = new JSArray();
+    private JSArray updated = new JSArray();
+
+    private int foundCount;
+    private int lostCount;
+    private int updatedCount;
+
+    private long frame;
+    private long firstEventAt;
+
+    public EventBatcher(long intervalMillis, int maxSize, Callback callback) {
+        this.intervalMillis = intervalMillis;
+        this.maxSize = maxSize;
+
+        this.callback = callback;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void found(JSObject event) {
+        synchronized (this) {
+            found.put(event);
+            foundCount++;
+        }
+
+        added();
+    }
+
+    public void lost(JSObject event) {
+        synchronized (this) {
+            lost.put(event);
+            lostCount++;
+        }
+
+        added();
+    }
+
+    public void updated(JSObject event) {
+        synchronized (this) {
+            updated.put(event);
+            updatedCount++;
+        }
+
+        added();
+    }
+
+    private void added() {
+        boolean full;
+
+        synchronized (this) {
+            int size = foundCount + lostCount + updatedCount;
+
+            if (size == 1) {
+                firstEventAt = System.currentTimeMillis();
+
+                // Start the frame timer with the first event.
+                handler.postDelayed(runnable, intervalMillis);
+            }
+
+            full = maxSize > 0 && size >= maxSize;
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Delivers the pending frame, if any.
+     */
+    public void flush() {
+        JSObject event;
+
+        synchronized (this) {
+            handler.removeCallbacks(runnable);
+
+            int size = foundCount + lostCount + updatedCount;
+            if (size == 0) {
+                return;
+            }
+
+            JSObject counts = new JSObject()
+                .put("found", foundCount)
+                .put("lost", lostCount)
+                .put("updated", updatedCount)
+                .put("total", size);
+
+            event =
+                new JSObject()
+                    .put("frame", ++frame)
+                    .put("found", found)
+                    .put("lost", lost)
+                    .put("updated", updated)
+                    .put("counts", counts)
+                    .put("elapsedMillis", System.currentTimeMillis() - firstEventAt);
+
+            found = new JSArray();
+            lost = new JSArray();
+            updated = new JSArray();
+
+            foundCount = 0;
+            lostCount = 0;
+            updatedCount = 0;
+        }
+
+        if (callback != null) {
+            callback.onFlush(event);
+        }
+    }
+
+    /**
+     * Drops the pending frame without delivering it.
+     */
+    public void clear() {
+        synchronized (this) {
+            handler.removeCallbacks(runnable);
+
+            found = new JSArray();
+            lost = new JSArray();
+            updated = new JSArray();
+
+            foundCount = 0;
+            lostCount = 0;
+            updatedCount = 0;
+        }
+    }
+
+    /**
+     * Callback
+     */
+
+    public abstract static class Callback {
+
+        public void onFlush(JSObject frame) {}
+    }
+}
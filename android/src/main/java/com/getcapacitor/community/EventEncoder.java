@@ -0,0 +1,167 @@
+package com.getcapacitor.community;
+
+import java.util.UUID;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the event objects of found, lost and updated beacons, with the content encoded as Base64.
+ *
+ * Re-sightings and re-emissions reuse the event and the encoded content instead of encoding again. The event type
+ * and the Base64 encoder are passed in, so the same code runs on Android and on the JVM.
+ */
+public class EventEncoder<E extends JSONObject> {
+
+    private final Factory<E> factory;
+    private final Encoder encoder;
+
+    private final PayloadCache<Object, E> eventCache;
+    private final PayloadCache<Long, String> contentCache;
+
+    public EventEncoder(Factory<E> factory, Encoder encoder, long eventCacheWeight, long contentCacheWeight) {
+        this.factory = factory;
+        this.encoder = encoder;
+
+        this.eventCache = new PayloadCache<>(eventCacheWeight);
+        this.contentCache = new PayloadCache<>(contentCacheWeight);
+    }
+
+    public PayloadCache<?, ?> getEventCache() {
+        return eventCache;
+    }
+
+    public PayloadCache<?, ?> getContentCache() {
+        return contentCache;
+    }
+
+    public void clear() {
+        eventCache.clear();
+        contentCache.clear();
+    }
+
+    public E toEvent(UUID uuid, byte[] data) {
+        E event = eventCache.get(uuid, data);
+        if (event != null) {
+            return event;
+        }
+
+        event = factory.newEvent();
+
+        // Rough size in bytes of the strings held by the event.
+        int weight = 2 * 36;
+
+        try {
+            event.put("uuid", uuid.toString());
+
+            if (data != null && data.length > 0) {
+                String content = encode(data);
+
+                event.put("content", content);
+
+                weight += 2 * content.length();
+            }
+        } catch (JSONException e) {
+            // Only thrown for a null name.
+            throw new IllegalStateException(e);
+        }
+
+        eventCache.put(uuid, data, event, weight);
+
+        return event;
+    }
+
+    /**
+     * Returns the event of a beacon routed to a subscription, which carries its handle and namespace.
+     */
+    public E toEvent(int handle, UUID serviceUUID, UUID uuid, byte[] data) {
+        // Routed events carry the subscription, so they are cached by its handle too.
+        RoutedKey key = new RoutedKey(handle, uuid);
+
+        E routed = eventCache.get(key, data);
+        if (routed != null) {
+            return routed;
+        }
+
+        E event = toEvent(uuid, data);
+
+        routed = factory.newEvent();
+
+        // Rough size in bytes of the strings held by the event.
+        int weight = 2 * 36 + 2 * 36;
+
+        try {
+            routed.put("uuid", event.optString("uuid")).put("handle", handle).put("serviceUUID", serviceUUID.toString());
+
+            String content = event.optString("content", null);
+            if (content != null) {
+                routed.put("content", content);
+
+                weight += 2 * content.length();
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        eventCache.put(key, data, routed, weight);
+
+        return routed;
+    }
+
+    public String encode(byte[] data) {
+        long fingerprint = Fingerprint.of(data);
+
+        String content = contentCache.get(fingerprint, data);
+        if (content == null) {
+            content = encoder.encode(data);
+
+            contentCache.put(fingerprint, data, content, 2 * content.length() + data.length);
+        }
+
+        return content;
+    }
+
+    /**
+     * Factory
+     */
+
+    public interface Factory<E> {
+        E newEvent();
+    }
+
+    /**
+     * Encoder
+     */
+
+    public interface Encoder {
+        // Base64 without line breaks.
+        String encode(byte[] data);
+    }
+
+    private static final class RoutedKey {
+
+        final int handle;
+        final UUID uuid;
+
+        RoutedKey(int handle, UUID uuid) {
+            this.handle = handle;
+
+            this.uuid = uuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RoutedKey)) {
+                return false;
+            }
+
+            RoutedKey other = (RoutedKey) o;
+
+            return handle == other.handle && uuid.equals(other.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * uuid.hashCode() + handle;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.getcapacitor.community;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel for liveness expiry.
+ *
+ * Entries are kept in intrusive doubly linked lists, one per bucket, so that scheduling and removing an entry
+ * never allocates. Entries are re-evaluated lazily: a sighting only moves the deadline forward, and the entry is
+ * re-bucketed when its old bucket is swept. This is not thread-safe, callers need to hold their own lock.
+ */
+public class ExpiryWheel<E extends ExpiryWheel.Entry> {
+
+    private final long tickMillis;
+
+    private final Entry[] buckets;
+
+    private long currentTick = -1;
+    private int size;
+
+    public ExpiryWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive");
+        }
+
+        this.tickMillis = tickMillis;
+
+        this.buckets = new Entry[wheelSize];
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds an entry to the wheel, or moves it if it has already been scheduled.
+     */
+    public void schedule(E entry, long deadline) {
+        if (entry.bucket >= 0) {
+            unlink(entry);
+        }
+
+        link(entry, deadline);
+    }
+
+    public boolean isScheduled(E entry) {
+        return entry.bucket >= 0;
+    }
+
+    public void remove(E entry) {
+        if (entry.bucket >= 0) {
+            unlink(entry);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            Entry entry = buckets[i];
+            while (entry != null) {
+                Entry next = entry.next;
+
+                entry.bucket = -1;
+                entry.prev = null;
+                entry.next = null;
+
+                entry = next;
+            }
+
+            buckets[i] = null;
+        }
+
+        currentTick = -1;
+        size = 0;
+    }
+
+    /**
+     * Sweeps all buckets up to the given time and returns the entries whose deadline has passed.
+     * Entries which have been seen in the meantime are moved to the bucket matching their new deadline.
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> advance(long now) {
+        List<E> expired = null;
+
+        long tick = now / tickMillis;
+
+        if (tick - currentTick >= buckets.length) {
+            // We fell behind a full rotation, so every bucket is due.
+            currentTick = Math.max(tick - buckets.length, -1);
+        }
+
+        while (currentTick < tick) {
+            currentTick++;
+
+            int index = (int) (currentTick % buckets.length);
+
+            Entry entry = buckets[index];
+            buckets[index] = null;
+
+            while (entry != null) {
+                Entry next = entry.next;
+
+                entry.bucket = -1;
+                entry.prev = null;
+                entry.next = null;
+                size--;
+
+                long deadline = entry.deadline();
+                if (deadline <= now) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add((E) entry);
+                } else {
+                    link(entry, deadline);
+                }
+
+                entry = next;
+            }
+        }
+
+        return expired;
+    }
+
+    private void link(Entry entry, long deadline) {
+        long tick = Math.max(deadline / tickMillis, currentTick + 1);
+
+        // Deadlines beyond one rotation land in an earlier bucket and are simply re-bucketed when swept.
+        int index = (int) (tick % buckets.length);
+
+        Entry head = buckets[index];
+
+        entry.bucket = index;
+        entry.due = deadline;
+        entry.prev = null;
+        entry.next = head;
+
+        if (head != null) {
+            head.prev = entry;
+        }
+
+        buckets[index] = entry;
+        size++;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            buckets[entry.bucket] = entry.next;
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+
+        entry.bucket = -1;
+        entry.prev = null;
+        entry.next = null;
+        size--;
+    }
+
+    /**
+     * Entry
+     */
+
+    public abstract static class Entry {
+
+        int bucket = -1;
+
+        // The deadline the entry was scheduled for, may be read without holding the lock.
+        volatile long due;
+
+        Entry prev;
+        Entry next;
+
+        // Returns the time at which this entry is considered expired.
+        protected abstract long deadline();
+    }
+}
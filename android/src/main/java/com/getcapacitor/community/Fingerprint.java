@@ -0,0 +1,38 @@
+package com.getcapacitor.community;
+
+/**
+ * Cheap 64-bit fingerprint of a payload (FNV-1a), used to tell payloads apart without keeping or comparing them.
+ */
+public final class Fingerprint {
+
+    // Fingerprint of a missing payload, distinct from the fingerprint of an empty one.
+    public static final long NONE = 0;
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fingerprint() {}
+
+    public static long of(byte[] bytes) {
+        if (bytes == null) {
+            return NONE;
+        }
+
+        return of(bytes, 0, bytes.length);
+    }
+
+    public static long of(byte[] bytes, int offset, int length) {
+        long hash = OFFSET_BASIS;
+
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= PRIME;
+        }
+
+        // Mix in the length, so payloads which are a prefix of each other differ.
+        hash ^= length;
+        hash *= PRIME;
+
+        return hash == NONE ? 1 : hash;
+    }
+}
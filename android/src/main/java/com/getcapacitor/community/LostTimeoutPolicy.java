@@ -0,0 +1,94 @@
+package com.getcapacitor.community;
+
+/**
+ * Decides how long a beacon may go unseen before it is lost, from the interval it has been seen at.
+ *
+ * The interval is smoothed asymmetrically: it grows quickly when sightings are missed and shrinks slowly when they
+ * come in faster, so a single missed window widens the timeout instead of firing a loss, and a short burst does not
+ * narrow it. The timeout is a multiple of the smoothed interval within a floor and a ceiling. Until the interval is
+ * known, and if adaptive timeouts are disabled, the initial timeout applies.
+ */
+public class LostTimeoutPolicy {
+
+    public static final double DEFAULT_MULTIPLIER = 3;
+    public static final long DEFAULT_MIN_MILLIS = 3000;
+    public static final long DEFAULT_MAX_MILLIS = 30000;
+
+    // Weight of a new interval which is longer, and which is shorter than the smoothed one.
+    private static final double GROW = 0.5;
+    private static final double SHRINK = 0.125;
+
+    private final boolean adaptive;
+
+    private final long initialMillis;
+
+    private final double multiplier;
+    private final long minMillis;
+    private final long maxMillis;
+
+    public LostTimeoutPolicy(boolean adaptive, long initialMillis, double multiplier, long minMillis, long maxMillis) {
+        if (initialMillis <= 0 || minMillis <= 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Timeouts must be positive, and the ceiling at least the floor");
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+
+        this.adaptive = adaptive;
+
+        this.initialMillis = initialMillis;
+
+        this.multiplier = multiplier;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    // The same timeout for every beacon.
+    public static LostTimeoutPolicy fixed(long timeoutMillis) {
+        return new LostTimeoutPolicy(false, timeoutMillis, DEFAULT_MULTIPLIER, timeoutMillis, timeoutMillis);
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public long getInitialMillis() {
+        return initialMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public long getMinMillis() {
+        return adaptive ? Math.min(minMillis, initialMillis) : initialMillis;
+    }
+
+    public long getMaxMillis() {
+        return adaptive ? Math.max(maxMillis, initialMillis) : initialMillis;
+    }
+
+    /**
+     * Returns the smoothed interval after a new one, given the smoothed interval before or 0 if there is none.
+     */
+    public static long interval(long smoothed, long interval) {
+        if (smoothed <= 0) {
+            return interval;
+        }
+
+        double weight = interval > smoothed ? GROW : SHRINK;
+
+        return Math.max(1, Math.round(smoothed + weight * (interval - smoothed)));
+    }
+
+    /**
+     * Returns the timeout for a beacon with the given smoothed interval, which is 0 while it is not known yet.
+     */
+    public long timeout(long smoothed) {
+        if (!adaptive || smoothed <= 0) {
+            return initialMillis;
+        }
+
+        return Math.max(minMillis, Math.min(maxMillis, Math.round(multiplier * smoothed)));
+    }
+}
@@ -0,0 +1,168 @@
+package com.getcapacitor.community;
+
+import java.util.Arrays;
+
+/**
+ * Splits a message into fragments which fit into a single advertisement, and puts them back together.
+ *
+ * Every fragment is advertised as service data of the namespace and starts with a two byte header:
+ *
+ *   byte 0: message id, changes whenever the content changes
+ *   byte 1: fragment index (high nibble) and fragment count - 1 (low nibble)
+ */
+public final class MessageTransport {
+
+    public static final int HEADER_LENGTH = 2;
+
+    public static final int MAX_FRAGMENTS = 16;
+
+    private MessageTransport() {}
+
+    /**
+     * Returns the maximum message length for the given fragment length, including the header.
+     */
+    public static int maxMessageLength(int maxFragmentLength) {
+        return (maxFragmentLength - HEADER_LENGTH) * MAX_FRAGMENTS;
+    }
+
+    public static byte[][] fragment(byte[] message, int messageId, int maxFragmentLength) {
+        int chunk = maxFragmentLength - HEADER_LENGTH;
+        if (chunk <= 0) {
+            throw new IllegalArgumentException("Fragments are too small to carry any content.");
+        }
+
+        int length = message != null ? message.length : 0;
+
+        int count = Math.max(1, (length + chunk - 1) / chunk);
+        if (count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException(String.format("Content is too large, %d bytes at most.", maxMessageLength(maxFragmentLength)));
+        }
+
+        byte[][] fragments = new byte[count][];
+
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunk;
+            int size = Math.min(chunk, length - offset);
+
+            byte[] fragment = new byte[HEADER_LENGTH + size];
+            fragment[0] = (byte) messageId;
+            fragment[1] = (byte) ((index << 4) | (count - 1));
+
+            if (size > 0) {
+                System.arraycopy(message, offset, fragment, HEADER_LENGTH, size);
+            }
+
+            fragments[index] = fragment;
+        }
+
+        return fragments;
+    }
+
+    public static int messageId(byte[] bytes, int offset) {
+        return bytes[offset] & 0xFF;
+    }
+
+    public static int index(byte[] bytes, int offset) {
+        return (bytes[offset + 1] >> 4) & 0x0F;
+    }
+
+    public static int count(byte[] bytes, int offset) {
+        return (bytes[offset + 1] & 0x0F) + 1;
+    }
+
+    /**
+     * Assembly
+     */
+
+    public static final class Assembly {
+
+        final int messageId;
+        final int count;
+
+        final long startedAt;
+
+        private final byte[][] fragments;
+        private int received;
+
+        public Assembly(int messageId, int count, long startedAt) {
+            this.messageId = messageId;
+            this.count = count;
+
+            this.startedAt = startedAt;
+
+            this.fragments = new byte[count][];
+        }
+
+        /**
+         * Adds the fragment at the given range of the advertisement, including its header.
+         *
+         * @return whether the message is complete
+         */
+        public boolean add(byte[] bytes, int offset, int length) {
+            int index = index(bytes, offset);
+
+            if (index < count && fragments[index] == null) {
+                fragments[index] = Arrays.copyOfRange(bytes, offset + HEADER_LENGTH, offset + length);
+
+                received++;
+            }
+
+            return received == count;
+        }
+
+        public byte[] join() {
+            int length = 0;
+            for (byte[] fragment : fragments) {
+                length += fragment.length;
+            }
+
+            byte[] message = new byte[length];
+
+            int offset = 0;
+            for (byte[] fragment : fragments) {
+                System.arraycopy(fragment, 0, message, offset, fragment.length);
+                offset += fragment.length;
+            }
+
+            return message;
+        }
+    }
+
+    /**
+     * Stats
+     */
+
+    // Time from the first fragment seen to a complete message, by number of fragments.
+    public static final class Stats {
+
+        private final long[] messages = new long[MAX_FRAGMENTS];
+        private final long[] totalMillis = new long[MAX_FRAGMENTS];
+        private final long[] maxMillis = new long[MAX_FRAGMENTS];
+
+        public synchronized void record(int count, long millis) {
+            int index = count - 1;
+
+            messages[index]++;
+            totalMillis[index] += millis;
+            maxMillis[index] = Math.max(maxMillis[index], millis);
+        }
+
+        public synchronized long getMessages(int count) {
+            return messages[count - 1];
+        }
+
+        public synchronized long getAverageMillis(int count) {
+            return messages[count - 1] > 0 ? totalMillis[count - 1] / messages[count - 1] : 0;
+        }
+
+        public synchronized long getMaxMillis(int count) {
+            return maxMillis[count - 1];
+        }
+
+        public synchronized void reset() {
+            Arrays.fill(messages, 0);
+            Arrays.fill(totalMillis, 0);
+            Arrays.fill(maxMillis, 0);
+        }
+    }
+}
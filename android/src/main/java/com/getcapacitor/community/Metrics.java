@@ -0,0 +1,320 @@
+package com.getcapacitor.community;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of how hard the plugin is working, cheap enough to stay on in release builds.
+ *
+ * Counters are striped by thread so recording does not contend, latencies go into fixed log-linear histograms.
+ * A snapshot reports the totals, and the rates since the previous snapshot.
+ */
+public class Metrics {
+
+    private static final Metrics instance = new Metrics();
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    // Scanning
+
+    public final Counter scanResults = new Counter();
+    public final Counter scanStarts = new Counter();
+    public final Counter scanRestarts = new Counter();
+    // Starts saved by a stop and start in quick succession, starts waiting for the start budget, and renewed sessions.
+    public final Counter scanStartsCoalesced = new Counter();
+    public final Counter scanStartsDeferred = new Counter();
+    public final Counter scanWatchdogRestarts = new Counter();
+    public final Codes scanFailures = new Codes();
+
+    // Scans reconfigured while running, and how long no results came in meanwhile, in microseconds.
+    public final Counter scanHandovers = new Counter();
+    public final Histogram scanHandoverGap = new Histogram();
+
+    public final Counter found = new Counter();
+    public final Counter lost = new Counter();
+    public final Counter updated = new Counter();
+
+    // From the scan callback to the event being handed to the bridge, in microseconds.
+    public final Histogram deliveryLatency = new Histogram();
+
+    // Advertising
+
+    public final Counter advertiseStarts = new Counter();
+    public final Codes advertiseFailures = new Codes();
+
+    // Advertisements reconfigured or updated while on air, and how long nothing was advertised meanwhile, in microseconds.
+    public final Counter advertiseHandovers = new Counter();
+    public final Histogram advertiseHandoverGap = new Histogram();
+
+    // From starting an advertisement to the controller confirming it, in microseconds.
+    public final Histogram advertiseLatency = new Histogram();
+
+    public final Counter encodedBytes = new Counter();
+    public final Counter publicationCacheHits = new Counter();
+    public final Counter publicationCacheMisses = new Counter();
+
+    // Bluetooth
+
+    // Times Bluetooth went off while in use, times scanning and publishing were re-armed, and attempts to retry.
+    public final Counter bluetoothOutages = new Counter();
+    public final Counter bluetoothRecoveries = new Counter();
+    public final Counter bluetoothRearmRetries = new Counter();
+
+    // From Bluetooth being back on to scanning and publishing again, in microseconds.
+    public final Histogram bluetoothRecoveryTime = new Histogram();
+
+    // Totals at the previous snapshot, to derive the rates.
+    private final long startedAt = System.currentTimeMillis();
+    private long snapshotAt = startedAt;
+    private long lastScanResults;
+    private long lastFound;
+    private long lastLost;
+    private long lastUpdated;
+
+    public synchronized Snapshot snapshot(long now) {
+        Snapshot snapshot = new Snapshot();
+
+        snapshot.uptimeMillis = now - startedAt;
+        snapshot.intervalMillis = now - snapshotAt;
+
+        snapshot.scanResults = scanResults.sum();
+        snapshot.scanStarts = scanStarts.sum();
+        snapshot.scanRestarts = scanRestarts.sum();
+        snapshot.scanStartsCoalesced = scanStartsCoalesced.sum();
+        snapshot.scanStartsDeferred = scanStartsDeferred.sum();
+        snapshot.scanWatchdogRestarts = scanWatchdogRestarts.sum();
+        snapshot.scanFailures = scanFailures.counts();
+        snapshot.scanHandovers = scanHandovers.sum();
+        snapshot.scanHandoverGapP50 = scanHandoverGap.percentile(0.5) / 1000.0;
+        snapshot.scanHandoverGapP99 = scanHandoverGap.percentile(0.99) / 1000.0;
+
+        snapshot.found = found.sum();
+        snapshot.lost = lost.sum();
+        snapshot.updated = updated.sum();
+
+        double seconds = Math.max(1, snapshot.intervalMillis) / 1000.0;
+
+        snapshot.scanResultRate = (snapshot.scanResults - lastScanResults) / seconds;
+        snapshot.foundRate = (snapshot.found - lastFound) / seconds;
+        snapshot.lostRate = (snapshot.lost - lastLost) / seconds;
+        snapshot.updatedRate = (snapshot.updated - lastUpdated) / seconds;
+
+        snapshot.deliveryLatencyP50 = deliveryLatency.percentile(0.5) / 1000.0;
+        snapshot.deliveryLatencyP99 = deliveryLatency.percentile(0.99) / 1000.0;
+
+        snapshot.advertiseStarts = advertiseStarts.sum();
+        snapshot.advertiseFailures = advertiseFailures.counts();
+        snapshot.advertiseLatencyP50 = advertiseLatency.percentile(0.5) / 1000.0;
+        snapshot.advertiseLatencyP99 = advertiseLatency.percentile(0.99) / 1000.0;
+        snapshot.advertiseHandovers = advertiseHandovers.sum();
+        snapshot.advertiseHandoverGapP50 = advertiseHandoverGap.percentile(0.5) / 1000.0;
+        snapshot.advertiseHandoverGapP99 = advertiseHandoverGap.percentile(0.99) / 1000.0;
+
+        snapshot.encodedBytes = encodedBytes.sum();
+        snapshot.publicationCacheHits = publicationCacheHits.sum();
+        snapshot.publicationCacheMisses = publicationCacheMisses.sum();
+
+        snapshot.bluetoothOutages = bluetoothOutages.sum();
+        snapshot.bluetoothRecoveries = bluetoothRecoveries.sum();
+        snapshot.bluetoothRearmRetries = bluetoothRearmRetries.sum();
+        snapshot.bluetoothRecoveryTimeP50 = bluetoothRecoveryTime.percentile(0.5) / 1000.0;
+        snapshot.bluetoothRecoveryTimeP99 = bluetoothRecoveryTime.percentile(0.99) / 1000.0;
+
+        snapshotAt = now;
+        lastScanResults = snapshot.scanResults;
+        lastFound = snapshot.found;
+        lastLost = snapshot.lost;
+        lastUpdated = snapshot.updated;
+
+        return snapshot;
+    }
+
+    /**
+     * Snapshot
+     */
+
+    public static class Snapshot {
+
+        public long uptimeMillis;
+        // Time since the previous snapshot, which the rates are averaged over.
+        public long intervalMillis;
+
+        public long scanResults;
+        public double scanResultRate;
+        public long scanStarts;
+        public long scanRestarts;
+        public long scanStartsCoalesced;
+        public long scanStartsDeferred;
+        public long scanWatchdogRestarts;
+        public Map<Integer, Long> scanFailures;
+        public long scanHandovers;
+        // In milliseconds.
+        public double scanHandoverGapP50;
+        public double scanHandoverGapP99;
+
+        public long found;
+        public long lost;
+        public long updated;
+        public double foundRate;
+        public double lostRate;
+        public double updatedRate;
+
+        // In milliseconds.
+        public double deliveryLatencyP50;
+        public double deliveryLatencyP99;
+
+        public long advertiseStarts;
+        public Map<Integer, Long> advertiseFailures;
+        public double advertiseLatencyP50;
+        public double advertiseLatencyP99;
+        public long advertiseHandovers;
+        public double advertiseHandoverGapP50;
+        public double advertiseHandoverGapP99;
+
+        public long encodedBytes;
+        public long publicationCacheHits;
+        public long publicationCacheMisses;
+
+        public long bluetoothOutages;
+        public long bluetoothRecoveries;
+        public long bluetoothRearmRetries;
+        public double bluetoothRecoveryTimeP50;
+        public double bluetoothRecoveryTimeP99;
+    }
+
+    /**
+     * Counter
+     */
+
+    public static final class Counter {
+
+        private static final int STRIPES = 8;
+
+        // Longs per stripe, so that stripes are a cache line apart.
+        private static final int PADDING = 8;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long value) {
+            cells.getAndAdd((int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, value);
+        }
+
+        public long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+
+            return sum;
+        }
+    }
+
+    /**
+     * Codes
+     */
+
+    // Counts by error code, failures are rare enough to not need striping.
+    public static final class Codes {
+
+        private final Map<Integer, AtomicLong> counts = new ConcurrentHashMap<>();
+
+        public void record(int code) {
+            AtomicLong count = counts.get(code);
+            if (count == null) {
+                AtomicLong created = new AtomicLong();
+
+                count = counts.putIfAbsent(code, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+
+            count.incrementAndGet();
+        }
+
+        public Map<Integer, Long> counts() {
+            Map<Integer, Long> snapshot = new TreeMap<>();
+            for (Map.Entry<Integer, AtomicLong> entry : counts.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().get());
+            }
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Histogram
+     */
+
+    // Log-linear buckets, eight per power of two, so a percentile is off by at most 12.5%.
+    public static final class Histogram {
+
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BITS = 3;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+
+        public void record(long value) {
+            buckets.incrementAndGet(index(Math.max(0, value)));
+            count.incrementAndGet();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values falls, or 0 if there are none.
+         */
+        public long percentile(double fraction) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return value(i);
+                }
+            }
+
+            return value(buckets.length() - 1);
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            int msb = 63 - Long.numberOfLeadingZeros(value);
+
+            return (msb - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1));
+        }
+
+        // The middle of the bucket.
+        static long value(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+
+            int shift = index / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+            return lower + ((1L << shift) >>> 1);
+        }
+    }
+}
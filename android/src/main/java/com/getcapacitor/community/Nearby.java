@@ -10,6 +10,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.os.Handler;
 import android.util.Base64;
 import android.util.Log;
 import androidx.activity.result.ActivityResult;
@@ -26,8 +27,13 @@ import com.getcapacitor.annotation.Permission;
 import com.getcapacitor.annotation.PermissionCallback;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 interface Constants {
     String BLUETOOTH_NOT_SUPPORTED = "Bluetooth not supported";
@@ -37,6 +43,9 @@ interface Constants {
     String PERMISSION_DENIED = "permission denied";
 
     String UUID_NOT_FOUND = "UUID not found";
+    String SUBSCRIPTION_NOT_FOUND = "subscription not found";
+
+    String NOT_PUBLISHING = "not publishing";
 
     @StringDef(
         {
@@ -100,12 +109,50 @@ public class Nearby extends Plugin {
     private BluetoothAdapter mAdapter;
 
     private Scanner mScanner;
-    private Advertiser mAdvertiser;
+    private Publisher mPublisher;
 
-    private UUID serviceUUID;
+    // The publisher is confined to the worker, its queries are answered there.
+    private final Handler mPublishHandler = Worker.newHandler();
+
+    // Pauses scanning and publishing while Bluetooth is off, and re-arms them when it is back on.
+    private BluetoothRecovery mRecovery;
+
+    // Routes the events of the subscriptions to namespaces of their own.
+    private final Subscription.Callback mSubscriptionCallback = new SubscriptionCallback();
+
+    // Report the scan and the published tokens handed over to a new configuration.
+    private final Scanner.Callback mScanReconfigured = new Scanner.Callback() {
+        @Override
+        public void onReconfigured(double gapMillis) {
+            Nearby.this.onReconfigured("scan", null, gapMillis);
+        }
+    };
+    private final Publisher.Callback mPublishReconfigured = new Publisher.Callback() {
+        @Override
+        public void onReconfigured(UUID uuid, double gapMillis) {
+            Nearby.this.onReconfigured("advertise", uuid, gapMillis);
+        }
+    };
 
-    private UUID uuid;
-    private byte[] data;
+    // Replaced on the plugin thread, used by the beacon callbacks on the worker.
+    private volatile EventBatcher mBatcher;
+
+    // Posts onMetrics periodically, if enabled.
+    private final Handler mMetricsHandler = Worker.newHandler();
+    private Runnable mMetricsRunnable;
+
+    // Re-sightings and re-emissions reuse the event and the encoded content instead of encoding again.
+    private final EventEncoder<JSObject> eventEncoder = new EventEncoder<>(
+        JSObject::new,
+        data -> Base64.encodeToString(data, Base64.DEFAULT | Base64.NO_WRAP),
+        EVENT_CACHE_WEIGHT,
+        CONTENT_CACHE_WEIGHT
+    );
+
+    private static final long EVENT_CACHE_WEIGHT = 256 * 1024;
+    private static final long CONTENT_CACHE_WEIGHT = 128 * 1024;
+
+    private UUID serviceUUID;
 
     private Integer scanTimeout;
     private Integer advertiseTimeout;
@@ -119,6 +166,8 @@ public class Nearby extends Plugin {
 
         stop();
 
+        stopMetrics();
+
         if (mReceiver != null) {
             try {
                 getContext().unregisterReceiver(mReceiver);
@@ -179,18 +228,39 @@ public class Nearby extends Plugin {
         Integer advertiseMode = AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY;
         Integer txPowerLevel = AdvertiseSettings.ADVERTISE_TX_POWER_HIGH;
 
+        Integer batchInterval = null;
+        Integer batchSize = null;
+
+        Boolean adaptiveScan = null;
+
+        Boolean extendedAdvertising = null;
+        Integer primaryPhy = null;
+        Integer secondaryPhy = null;
+        Integer advertiseIntervalMillis = null;
+
+        Integer maxAdvertisers = null;
+        Integer advertiseSliceMillis = null;
+
+        Integer metricsIntervalMillis = null;
+
+        Boolean adaptiveLostTimeout = null;
+        Integer lostTimeoutMillis = null;
+        Double lostTimeoutMultiplier = null;
+        Integer minLostTimeoutMillis = null;
+        Integer maxLostTimeoutMillis = null;
+
+        Integer historySize = null;
+        Long historyMaxBytes = null;
+
+        Integer proximityIntervalMillis = null;
+        Integer measuredPower = null;
+        Double pathLossExponent = null;
+
         JSObject optionsObject = call.getObject("options", null);
         if (optionsObject != null) {
             String serviceUUID = optionsObject.getString("serviceUUID", null);
             if (serviceUUID != null && serviceUUID.length() > 0) {
-                switch (serviceUUID.length()) {
-                    case 4:
-                        serviceUUID = "0000" + serviceUUID;
-                    case 8:
-                        serviceUUID = serviceUUID + "-" + "0000-1000-8000-00805f9b34fb";
-                }
-
-                this.serviceUUID = UUID.fromString(serviceUUID);
+                this.serviceUUID = parseUUID(serviceUUID);
             } else {
                 call.reject(Constants.UUID_NOT_FOUND);
                 return;
@@ -200,6 +270,42 @@ public class Nearby extends Plugin {
 
             advertiseMode = optionsObject.getInteger("advertiseMode");
             txPowerLevel = optionsObject.getInteger("txPowerLevel");
+
+            batchInterval = optionsObject.getInteger("batchInterval");
+            batchSize = optionsObject.getInteger("batchSize");
+
+            adaptiveScan = optionsObject.getBoolean("adaptiveScan", null);
+
+            extendedAdvertising = optionsObject.getBoolean("extendedAdvertising", null);
+            primaryPhy = optionsObject.getInteger("primaryPhy");
+            secondaryPhy = optionsObject.getInteger("secondaryPhy");
+            advertiseIntervalMillis = optionsObject.getInteger("advertiseIntervalMillis");
+
+            maxAdvertisers = optionsObject.getInteger("maxAdvertisers");
+            advertiseSliceMillis = optionsObject.getInteger("advertiseSliceMillis");
+
+            metricsIntervalMillis = optionsObject.getInteger("metricsIntervalMillis");
+
+            adaptiveLostTimeout = optionsObject.getBoolean("adaptiveLostTimeout", null);
+            lostTimeoutMillis = optionsObject.getInteger("lostTimeoutMillis");
+            if (optionsObject.has("lostTimeoutMultiplier")) {
+                lostTimeoutMultiplier = optionsObject.optDouble("lostTimeoutMultiplier");
+            }
+            minLostTimeoutMillis = optionsObject.getInteger("minLostTimeoutMillis");
+            maxLostTimeoutMillis = optionsObject.getInteger("maxLostTimeoutMillis");
+
+            historySize = optionsObject.getInteger("historySize");
+            historyMaxBytes = optionsObject.getLong("historyMaxBytes");
+
+            proximityIntervalMillis = optionsObject.getInteger("proximityIntervalMillis");
+            measuredPower = optionsObject.getInteger("measuredPower");
+            if (optionsObject.has("pathLossExponent")) {
+                pathLossExponent = optionsObject.optDouble("pathLossExponent");
+            }
+        } else {
+            // The scanner and the publisher cannot be created without a namespace.
+            call.reject(Constants.UUID_NOT_FOUND);
+            return;
         }
 
         mAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -220,13 +326,14 @@ public class Nearby extends Plugin {
                     public void onFound(UUID uuid, byte[] data) {
                         try {
                             if (mScanner.isScanning()) {
-                                JSObject jsData = new JSObject().put("uuid", uuid.toString());
+                                JSObject jsData = toEvent(uuid, data);
 
-                                if (data != null && data.length > 0) {
-                                    jsData.put("content", Base64.encodeToString(data, Base64.DEFAULT | Base64.NO_WRAP));
+                                EventBatcher batcher = mBatcher;
+                                if (batcher != null) {
+                                    batcher.found(jsData);
+                                } else {
+                                    notifyListeners("onFound", jsData);
                                 }
-
-                                notifyListeners("onFound", jsData);
                             }
                         } catch (Exception e) {
                             Log.e(getLogTag(), "onFound", e);
@@ -237,32 +344,158 @@ public class Nearby extends Plugin {
                     public void onLost(UUID uuid, byte[] data) {
                         try {
                             if (mScanner.isScanning()) {
-                                JSObject jsData = new JSObject().put("uuid", uuid.toString());
+                                JSObject jsData = toEvent(uuid, data);
 
-                                if (data != null && data.length > 0) {
-                                    jsData.put("content", Base64.encodeToString(data, Base64.DEFAULT | Base64.NO_WRAP));
+                                EventBatcher batcher = mBatcher;
+                                if (batcher != null) {
+                                    batcher.lost(jsData);
+                                } else {
+                                    notifyListeners("onLost", jsData);
                                 }
-
-                                notifyListeners("onLost", jsData);
                             }
                         } catch (Exception e) {
                             Log.e(getLogTag(), "onLost", e);
                         }
                     }
+
+                    @Override
+                    public void onUpdated(UUID uuid, byte[] data) {
+                        try {
+                            if (mScanner.isScanning()) {
+                                JSObject jsData = toEvent(uuid, data);
+
+                                EventBatcher batcher = mBatcher;
+                                if (batcher != null) {
+                                    batcher.updated(jsData);
+                                } else {
+                                    notifyListeners("onUpdated", jsData);
+                                }
+                            }
+                        } catch (Exception e) {
+                            Log.e(getLogTag(), "onUpdated", e);
+                        }
+                    }
+
+                    @Override
+                    public void onProximity(UUID uuid, double rssi, double distance, int zone) {
+                        try {
+                            if (mScanner.isScanning()) {
+                                JSObject jsData = new JSObject();
+                                jsData.put("uuid", uuid.toString());
+                                jsData.put("rssi", rssi);
+                                jsData.put("distance", distance);
+                                jsData.put("zone", ProximityEstimator.zoneName(zone));
+
+                                notifyListeners("onProximity", jsData);
+                            }
+                        } catch (Exception e) {
+                            Log.e(getLogTag(), "onProximity", e);
+                        }
+                    }
                 }
             );
 
-        if (scanMode != null) {
-            mScanner.setScanMode(scanMode);
+        // Hands a running scan over to the namespace and the scan mode at once.
+        mScanner.reconfigure(this.serviceUUID, scanMode, mScanReconfigured);
+        if (adaptiveScan != null) {
+            mScanner.setAdaptive(adaptiveScan);
         }
+        if (
+            adaptiveLostTimeout != null ||
+            lostTimeoutMillis != null ||
+            lostTimeoutMultiplier != null ||
+            minLostTimeoutMillis != null ||
+            maxLostTimeoutMillis != null
+        ) {
+            LostTimeoutPolicy lostTimeout = mScanner.getLostTimeout();
 
-        mAdvertiser = Advertiser.getInstance(this.mAdapter, this.serviceUUID);
+            try {
+                mScanner.setLostTimeout(
+                    new LostTimeoutPolicy(
+                        adaptiveLostTimeout != null ? adaptiveLostTimeout : lostTimeout.isAdaptive(),
+                        lostTimeoutMillis != null ? lostTimeoutMillis : lostTimeout.getInitialMillis(),
+                        lostTimeoutMultiplier != null ? lostTimeoutMultiplier : LostTimeoutPolicy.DEFAULT_MULTIPLIER,
+                        minLostTimeoutMillis != null ? minLostTimeoutMillis : LostTimeoutPolicy.DEFAULT_MIN_MILLIS,
+                        maxLostTimeoutMillis != null ? maxLostTimeoutMillis : LostTimeoutPolicy.DEFAULT_MAX_MILLIS
+                    )
+                );
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getLocalizedMessage(), e);
+                return;
+            }
+        }
+        if (historySize != null || historyMaxBytes != null) {
+            mScanner.setHistory(historySize, historyMaxBytes);
+        }
+        if (proximityIntervalMillis != null && proximityIntervalMillis >= 0) {
+            try {
+                mScanner.setProximity(
+                    new ProximityEstimator(
+                        measuredPower != null ? measuredPower : ProximityEstimator.DEFAULT_MEASURED_POWER,
+                        pathLossExponent != null ? pathLossExponent : ProximityEstimator.DEFAULT_PATH_LOSS_EXPONENT,
+                        proximityIntervalMillis
+                    )
+                );
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getLocalizedMessage(), e);
+                return;
+            }
+        } else {
+            mScanner.setProximity(null);
+        }
+
+        mPublisher = Publisher.getInstance(this.mAdapter, this.serviceUUID);
 
-        if (advertiseMode != null) {
-            mAdvertiser.setAdvertiseMode(advertiseMode);
+        // Hands the published tokens over to the namespace and the advertise settings at once.
+        mPublisher.reconfigure(this.serviceUUID, advertiseMode, txPowerLevel, mPublishReconfigured);
+        if (extendedAdvertising != null) {
+            mPublisher.setExtendedAdvertising(extendedAdvertising);
+        }
+        if (primaryPhy != null) {
+            mPublisher.setPrimaryPhy(primaryPhy);
+        }
+        if (secondaryPhy != null) {
+            mPublisher.setSecondaryPhy(secondaryPhy);
+        }
+        if (advertiseIntervalMillis != null) {
+            mPublisher.setAdvertiseIntervalMillis(advertiseIntervalMillis);
+        }
+        if (maxAdvertisers != null) {
+            mPublisher.setMaxAdvertisers(maxAdvertisers);
         }
-        if (txPowerLevel != null) {
-            mAdvertiser.setTxPowerLevel(txPowerLevel);
+        if (advertiseSliceMillis != null) {
+            mPublisher.setSliceMillis(advertiseSliceMillis);
+        }
+
+        // Detach the batcher before flushing it, so the callbacks stop adding to it.
+        EventBatcher batcher = mBatcher;
+        mBatcher = null;
+        if (batcher != null) {
+            batcher.flush();
+        }
+
+        if (batchInterval != null && batchInterval > 0) {
+            mBatcher =
+                new EventBatcher(
+                    batchInterval,
+                    batchSize != null ? batchSize : 0,
+                    new EventBatcher.Callback() {
+                        @Override
+                        public void onFlush(JSObject frame) {
+                            notifyListeners("onBatch", frame);
+                        }
+                    }
+                );
+        }
+
+        stopMetrics();
+
+        if (metricsIntervalMillis != null && metricsIntervalMillis > 0) {
+            startMetrics(metricsIntervalMillis);
+        }
+
+        if (mRecovery == null) {
+            mRecovery = new BluetoothRecovery(mScanner, mPublisher);
         }
 
         registerReceiver();
@@ -294,6 +527,10 @@ public class Nearby extends Plugin {
                         if (action != null && action.equals(BluetoothAdapter.ACTION_STATE_CHANGED)) {
                             final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
 
+                            if (mRecovery != null) {
+                                mRecovery.onStateChanged(state);
+                            }
+
                             notifyListeners("onBluetoothStateChanged", new JSObject().put("state", fromBluetoothState(state)));
                         }
                     }
@@ -327,18 +564,76 @@ public class Nearby extends Plugin {
         try {
             stop();
 
-            uuid = null;
-            data = null;
-
             scanTimeout = null;
             advertiseTimeout = null;
 
+            eventEncoder.clear();
+
+            call.resolve();
+        } catch (Exception e) {
+            call.reject(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Reconfigure
+     */
+
+    @PluginMethod
+    public void reconfigure(PluginCall call) {
+        if (mScanner == null || mPublisher == null) {
+            call.reject(Constants.NOT_INITIALIZED);
+            return;
+        }
+
+        try {
+            UUID serviceUUID = null;
+            Integer scanMode = null;
+            Integer advertiseMode = null;
+            Integer txPowerLevel = null;
+
+            JSObject optionsObject = call.getObject("options", null);
+            if (optionsObject != null) {
+                String uuid = optionsObject.getString("serviceUUID", null);
+                if (uuid != null && uuid.length() > 0) {
+                    serviceUUID = parseUUID(uuid);
+                }
+
+                scanMode = optionsObject.getInteger("scanMode");
+
+                advertiseMode = optionsObject.getInteger("advertiseMode");
+                txPowerLevel = optionsObject.getInteger("txPowerLevel");
+            }
+
+            if (serviceUUID != null) {
+                this.serviceUUID = serviceUUID;
+            }
+
+            // Handovers are reported with onReconfigured as they complete.
+            mScanner.reconfigure(serviceUUID, scanMode, mScanReconfigured);
+            mPublisher.reconfigure(serviceUUID, advertiseMode, txPowerLevel, mPublishReconfigured);
+
             call.resolve();
         } catch (Exception e) {
             call.reject(e.getLocalizedMessage(), e);
         }
     }
 
+    private void onReconfigured(String target, UUID uuid, double gapMillis) {
+        try {
+            JSObject jsData = new JSObject();
+            jsData.put("target", target);
+            if (uuid != null) {
+                jsData.put("uuid", uuid.toString());
+            }
+            jsData.put("gapMillis", gapMillis);
+
+            notifyListeners("onReconfigured", jsData);
+        } catch (Exception e) {
+            Log.e(getLogTag(), "onReconfigured", e);
+        }
+    }
+
     /**
      * Publish
      */
@@ -351,14 +646,14 @@ public class Nearby extends Plugin {
         }
 
         try {
+            UUID uuid = null;
+            byte[] data = null;
+
             JSObject messageObject = call.getObject("message", null);
             if (messageObject != null) {
                 String messageUUID = messageObject.getString("uuid", null);
                 if (messageUUID != null && messageUUID.length() > 0) {
                     uuid = UUID.fromString(messageUUID);
-                } else {
-                    call.reject(Constants.UUID_NOT_FOUND);
-                    return;
                 }
 
                 String content = messageObject.getString("content", null);
@@ -367,39 +662,52 @@ public class Nearby extends Plugin {
                 }
             }
 
+            if (uuid == null) {
+                call.reject(Constants.UUID_NOT_FOUND);
+                return;
+            }
+
             advertiseTimeout = null;
 
+            Integer weight = null;
+
             JSObject optionsObject = call.getObject("options", null);
             if (optionsObject != null) {
                 advertiseTimeout = optionsObject.getInteger("ttlSeconds");
+
+                weight = optionsObject.getInteger("weight");
+
+                Integer fragmentIntervalMillis = optionsObject.getInteger("fragmentIntervalMillis");
+                if (fragmentIntervalMillis != null) {
+                    mPublisher.setFragmentIntervalMillis(fragmentIntervalMillis);
+                }
             }
 
-            if (!mAdvertiser.isAdvertising()) {
-                Advertiser.Beacon beacon = new Advertiser.Beacon(uuid, data);
+            Advertiser.Beacon beacon = new Advertiser.Beacon(uuid, data);
 
-                mAdvertiser.start(
-                    beacon,
-                    advertiseTimeout,
-                    new Advertiser.Callback() {
-                        @Override
-                        public void onSuccess(AdvertiseSettings settings) {
-                            call.resolve();
-                        }
+            final UUID publicationUUID = uuid;
 
-                        @Override
-                        public void onFailure(int errorCode, String errorMessage) {
-                            call.reject(errorMessage, String.valueOf(errorCode), null);
-                        }
+            mPublisher.publish(
+                beacon,
+                weight != null ? weight : 1,
+                advertiseTimeout,
+                new Advertiser.Callback() {
+                    @Override
+                    public void onSuccess(AdvertiseSettings settings) {
+                        call.resolve();
+                    }
 
-                        @Override
-                        public void onExpired() {
-                            onPublishExpired();
-                        }
+                    @Override
+                    public void onFailure(int errorCode, String errorMessage) {
+                        call.reject(errorMessage, String.valueOf(errorCode), null);
                     }
-                );
-            } else {
-                call.resolve();
-            }
+
+                    @Override
+                    public void onExpired() {
+                        onPublishExpired(publicationUUID);
+                    }
+                }
+            );
         } catch (Exception e) {
             Log.e(getLogTag(), "publish", e);
 
@@ -407,12 +715,77 @@ public class Nearby extends Plugin {
         }
     }
 
-    private void onPublishExpired() {
-        if (mAdvertiser.isAdvertising()) {
-            notifyListeners("onPublishExpired", null);
+    private void onPublishExpired(UUID uuid) {
+        if (mPublisher.isPublishing(uuid)) {
+            notifyListeners("onPublishExpired", new JSObject().put("uuid", uuid.toString()));
         }
 
-        doUnpublish();
+        mPublisher.unpublish(uuid);
+    }
+
+    @PluginMethod
+    public void updatePublication(PluginCall call) {
+        if (mAdapter == null) {
+            call.reject(Constants.NOT_INITIALIZED);
+            return;
+        }
+
+        try {
+            UUID uuid = null;
+            byte[] data = null;
+
+            JSObject messageObject = call.getObject("message", null);
+            if (messageObject != null) {
+                String messageUUID = messageObject.getString("uuid", null);
+                if (messageUUID != null && messageUUID.length() > 0) {
+                    uuid = UUID.fromString(messageUUID);
+                }
+
+                String content = messageObject.getString("content", null);
+                if (content != null && content.length() > 0) {
+                    data = Base64.decode(content, Base64.DEFAULT);
+                }
+            }
+
+            final UUID publicationUUID = uuid;
+            final byte[] content = data;
+
+            Worker.handOff(mPublishHandler, () -> updatePublication(call, publicationUUID, content));
+        } catch (Exception e) {
+            Log.e(getLogTag(), "updatePublication", e);
+
+            call.reject(e.getLocalizedMessage(), e);
+        }
+    }
+
+    private void updatePublication(PluginCall call, UUID uuid, byte[] data) {
+        // Without a UUID, the only publication is updated.
+        Set<UUID> publications = mPublisher.getPublications();
+        if (uuid == null && publications.size() == 1) {
+            uuid = publications.iterator().next();
+        }
+
+        if (uuid == null || !mPublisher.isPublishing(uuid)) {
+            call.reject(Constants.NOT_PUBLISHING);
+            return;
+        }
+
+        Advertiser.Beacon beacon = new Advertiser.Beacon(uuid, data);
+
+        mPublisher.update(
+            beacon,
+            new Advertiser.Callback() {
+                @Override
+                public void onSuccess(AdvertiseSettings settings) {
+                    call.resolve();
+                }
+
+                @Override
+                public void onFailure(int errorCode, String errorMessage) {
+                    call.reject(errorMessage, String.valueOf(errorCode), null);
+                }
+            }
+        );
     }
 
     @PluginMethod
@@ -423,10 +796,16 @@ public class Nearby extends Plugin {
         }
 
         try {
-            doUnpublish();
+            String uuid = call.getString("uuid", null);
+            if (uuid != null && uuid.length() > 0) {
+                // Only this publication, the others go on.
+                mPublisher.unpublish(UUID.fromString(uuid));
 
-            uuid = null;
-            data = null;
+                call.resolve();
+                return;
+            }
+
+            doUnpublish();
 
             scanTimeout = null;
             advertiseTimeout = null;
@@ -440,8 +819,8 @@ public class Nearby extends Plugin {
     }
 
     private void doUnpublish() {
-        if (mAdvertiser != null) {
-            mAdvertiser.stop();
+        if (mPublisher != null) {
+            mPublisher.stop();
         }
     }
 
@@ -456,15 +835,34 @@ public class Nearby extends Plugin {
             return;
         }
 
+        JSObject optionsObject = call.getObject("options", null);
+
+        // A namespace asked for gets a subscription of its own, the one initialized with too.
+        String serviceUUID = optionsObject != null ? optionsObject.getString("serviceUUID", null) : null;
+        if (serviceUUID != null && serviceUUID.length() > 0) {
+            subscribe(call, serviceUUID, optionsObject);
+            return;
+        }
+
         if (!mScanner.isScanning()) {
             try {
                 scanTimeout = null;
 
-                JSObject optionsObject = call.getObject("options", null);
+                Integer reportDelayMillis = null;
+                Boolean background = null;
+
                 if (optionsObject != null) {
                     scanTimeout = optionsObject.getInteger("ttlSeconds");
+
+                    reportDelayMillis = optionsObject.getInteger("reportDelayMillis");
+                    background = optionsObject.getBoolean("background", null);
                 }
 
+                mScanner.setReportDelayMillis(reportDelayMillis != null ? reportDelayMillis : 0);
+                mScanner.setContext(getContext().getApplicationContext());
+                mScanner.setBackground(background != null && background);
+                mScanner.setFilters(parseFilters(optionsObject));
+
                 mScanner.start(
                     scanTimeout,
                     new Scanner.Callback() {
@@ -477,6 +875,11 @@ public class Nearby extends Plugin {
                         public void onExpired() {
                             onSubscribeExpired();
                         }
+
+                        @Override
+                        public void onScanModeChanged(int scanMode, String reason) {
+                            notifyListeners("onScanModeChanged", new JSObject().put("scanMode", scanMode).put("reason", reason));
+                        }
                     }
                 );
             } catch (Exception e) {
@@ -492,6 +895,28 @@ public class Nearby extends Plugin {
         call.resolve();
     }
 
+    private void subscribe(PluginCall call, String serviceUUID, JSObject optionsObject) {
+        try {
+            Subscription subscription = mScanner.subscribe(
+                parseUUID(serviceUUID),
+                parseFilters(optionsObject),
+                optionsObject.getInteger("ttlSeconds"),
+                mSubscriptionCallback
+            );
+
+            if (subscription == null) {
+                call.reject(Constants.BLUETOOTH_NOT_AVAILABLE);
+                return;
+            }
+
+            call.resolve(new JSObject().put("handle", subscription.getHandle()));
+        } catch (Exception e) {
+            Log.e(getLogTag(), "scan", e);
+
+            call.reject(e.getLocalizedMessage(), e);
+        }
+    }
+
     private void onSubscribeExpired() {
         if (mScanner.isScanning()) {
             notifyListeners("onSubscribeExpired", null);
@@ -508,7 +933,17 @@ public class Nearby extends Plugin {
         }
 
         try {
-            doUnsubscribe();
+            Integer handle = call.getInt("handle");
+            if (handle != null) {
+                if (!mScanner.unsubscribe(handle)) {
+                    call.reject(Constants.SUBSCRIPTION_NOT_FOUND);
+                    return;
+                }
+            } else {
+                doUnsubscribe();
+
+                mScanner.unsubscribeAll();
+            }
 
             call.resolve();
         } catch (Exception e) {
@@ -520,6 +955,92 @@ public class Nearby extends Plugin {
         if (mScanner != null) {
             mScanner.stop();
         }
+
+        EventBatcher batcher = mBatcher;
+        if (batcher != null) {
+            // Deliver whatever has been collected so far.
+            batcher.flush();
+        }
+    }
+
+    private class SubscriptionCallback extends Subscription.Callback {
+
+        @Override
+        public void onFound(Subscription subscription, UUID uuid, byte[] data) {
+            try {
+                JSObject jsData = toEvent(subscription, uuid, data);
+
+                EventBatcher batcher = mBatcher;
+                if (batcher != null) {
+                    batcher.found(jsData);
+                } else {
+                    notifyListeners("onFound", jsData);
+                }
+            } catch (Exception e) {
+                Log.e(getLogTag(), "onFound", e);
+            }
+        }
+
+        @Override
+        public void onLost(Subscription subscription, UUID uuid, byte[] data) {
+            try {
+                JSObject jsData = toEvent(subscription, uuid, data);
+
+                EventBatcher batcher = mBatcher;
+                if (batcher != null) {
+                    batcher.lost(jsData);
+                } else {
+                    notifyListeners("onLost", jsData);
+                }
+            } catch (Exception e) {
+                Log.e(getLogTag(), "onLost", e);
+            }
+        }
+
+        @Override
+        public void onUpdated(Subscription subscription, UUID uuid, byte[] data) {
+            try {
+                JSObject jsData = toEvent(subscription, uuid, data);
+
+                EventBatcher batcher = mBatcher;
+                if (batcher != null) {
+                    batcher.updated(jsData);
+                } else {
+                    notifyListeners("onUpdated", jsData);
+                }
+            } catch (Exception e) {
+                Log.e(getLogTag(), "onUpdated", e);
+            }
+        }
+
+        @Override
+        public void onProximity(Subscription subscription, UUID uuid, double rssi, double distance, int zone) {
+            try {
+                JSObject jsData = new JSObject();
+                jsData.put("uuid", uuid.toString());
+                jsData.put("handle", subscription.getHandle());
+                jsData.put("rssi", rssi);
+                jsData.put("distance", distance);
+                jsData.put("zone", ProximityEstimator.zoneName(zone));
+
+                notifyListeners("onProximity", jsData);
+            } catch (Exception e) {
+                Log.e(getLogTag(), "onProximity", e);
+            }
+        }
+
+        @Override
+        public void onExpired(Subscription subscription) {
+            notifyListeners("onSubscribeExpired", new JSObject().put("handle", subscription.getHandle()));
+        }
+
+        @Override
+        public void onFailure(Subscription subscription, int errorCode, String errorMessage) {
+            notifyListeners(
+                "onSubscribeFailed",
+                new JSObject().put("handle", subscription.getHandle()).put("errorCode", errorCode).put("message", errorMessage)
+            );
+        }
     }
 
     /**
@@ -528,24 +1049,369 @@ public class Nearby extends Plugin {
 
     @PluginMethod
     public void status(PluginCall call) {
+        Worker.handOff(mPublishHandler, () -> resolveStatus(call));
+    }
+
+    private void resolveStatus(PluginCall call) {
         try {
-            boolean isPublishing = mAdvertiser.isAdvertising();
+            boolean isPublishing = mPublisher.isPublishing();
             boolean isSubscribing = mScanner.isScanning();
 
+            // Read before the beacons, which then include every change up to it.
+            long version = mScanner.getVersion();
+
             Set<UUID> uuids = mScanner.getBeacons();
 
-            call.resolve(
-                new JSObject().put("isPublishing", isPublishing).put("isSubscribing", isSubscribing).put("uuids", new JSArray(uuids))
-            );
+            JSObject status = new JSObject()
+                .put("isPublishing", isPublishing)
+                .put("isExtendedAdvertising", mPublisher.isExtendedAdvertising())
+                .put("isSubscribing", isSubscribing)
+                .put("uuids", new JSArray(uuids))
+                .put("version", version);
+
+            // Effective advertising rate of each publication, which shares the advertisers with the others.
+            JSArray publications = new JSArray();
+            for (UUID uuid : mPublisher.getPublications()) {
+                publications.put(
+                    new JSObject()
+                        .put("uuid", uuid.toString())
+                        .put("weight", mPublisher.getWeight(uuid))
+                        .put("fragments", mPublisher.getFragmentCount(uuid))
+                        .put("dutyCycle", mPublisher.getDutyCycle(uuid))
+                        .put("rate", mPublisher.getRate(uuid))
+                        .put("messageRate", mPublisher.getMessageRate(uuid))
+                );
+            }
+            status.put("publications", publications).put("advertisers", mPublisher.getAdvertiserCount());
+
+            ScanScheduler scheduler = mScanner.getScheduler();
+            if (scheduler != null) {
+                status.put("scanMode", scheduler.getMode()).put("scanModeReason", scheduler.getReason());
+            }
+
+            JSArray subscriptions = new JSArray();
+            for (Subscription subscription : mScanner.getSubscriptions()) {
+                subscriptions.put(
+                    new JSObject()
+                        .put("handle", subscription.getHandle())
+                        .put("serviceUUID", subscription.getServiceUUID().toString())
+                        .put("uuids", new JSArray(subscription.getTracker().getBeacons()))
+                );
+            }
+            status.put("subscriptions", subscriptions);
+
+            // Time to receive a complete message, by number of fragments.
+            status.put("transport", toTransport(mScanner.getTransportStats()));
+
+            // Callbacks the plugin handled on the main looper, all of them only hand off to the worker thread.
+            status.put("mainThreadMessages", Worker.getMainThreadMessages()).put("workerMessages", Worker.getMessages());
+
+            call.resolve(status);
         } catch (Exception e) {
             call.reject(e.getLocalizedMessage(), e);
         }
     }
 
+    @PluginMethod
+    public void statusSince(PluginCall call) {
+        if (mScanner == null) {
+            call.reject(Constants.NOT_INITIALIZED);
+            return;
+        }
+
+        try {
+            Long version = call.getLong("version");
+
+            ChangeLog.Delta delta = version != null ? mScanner.getChangesSince(version) : null;
+
+            JSObject status = new JSObject().put("isSubscribing", mScanner.isScanning());
+
+            if (delta == null) {
+                // Changes were dropped, or never asked for.
+                long current = mScanner.getVersion();
+
+                status.put("version", current).put("full", true).put("uuids", new JSArray(mScanner.getBeacons()));
+            } else {
+                status
+                    .put("version", delta.version)
+                    .put("full", false)
+                    .put("added", new JSArray(delta.added))
+                    .put("removed", new JSArray(delta.removed))
+                    .put("changed", new JSArray(delta.changed));
+            }
+
+            call.resolve(status);
+        } catch (Exception e) {
+            call.reject(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * History
+     */
+
+    @PluginMethod
+    public void history(PluginCall call) {
+        if (mScanner == null) {
+            call.reject(Constants.NOT_INITIALIZED);
+            return;
+        }
+
+        String uuid = call.getString("uuid", null);
+        if (uuid == null || uuid.length() == 0) {
+            call.reject(Constants.UUID_NOT_FOUND);
+            return;
+        }
+
+        try {
+            Long sinceMillis = call.getLong("sinceMillis");
+
+            SightingHistory.Sightings sightings = mScanner.getHistory(parseUUID(uuid), sinceMillis != null ? sinceMillis : 0);
+
+            JSArray jsSightings = new JSArray();
+            if (sightings != null) {
+                for (int i = 0; i < sightings.count; i++) {
+                    JSObject sighting = new JSObject()
+                        .put("timestamp", sightings.timestamps[i])
+                        .put("fingerprint", Long.toHexString(sightings.fingerprints[i]));
+
+                    if (sightings.rssi[i] != SightingHistory.NO_RSSI) {
+                        sighting.put("rssi", sightings.rssi[i]);
+                    }
+
+                    jsSightings.put(sighting);
+                }
+            }
+
+            call.resolve(new JSObject().put("uuid", uuid).put("sightings", jsSightings));
+        } catch (Exception e) {
+            call.reject(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Metrics
+     */
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        if (mScanner == null || mPublisher == null) {
+            call.reject(Constants.NOT_INITIALIZED);
+            return;
+        }
+
+        try {
+            call.resolve(toMetrics(Metrics.getInstance().snapshot(System.currentTimeMillis())));
+        } catch (Exception e) {
+            call.reject(e.getLocalizedMessage(), e);
+        }
+    }
+
+    private void startMetrics(long intervalMillis) {
+        mMetricsRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        notifyListeners("onMetrics", toMetrics(Metrics.getInstance().snapshot(System.currentTimeMillis())));
+                    } catch (Exception e) {
+                        Log.e(getLogTag(), "onMetrics", e);
+                    }
+
+                    mMetricsHandler.postDelayed(this, intervalMillis);
+                }
+            };
+
+        mMetricsHandler.postDelayed(mMetricsRunnable, intervalMillis);
+    }
+
+    private void stopMetrics() {
+        if (mMetricsRunnable != null) {
+            mMetricsHandler.removeCallbacks(mMetricsRunnable);
+
+            mMetricsRunnable = null;
+        }
+    }
+
+    private JSObject toMetrics(Metrics.Snapshot snapshot) {
+        JSObject scan = new JSObject()
+            .put("results", snapshot.scanResults)
+            .put("resultRate", snapshot.scanResultRate)
+            .put("starts", snapshot.scanStarts)
+            .put("restarts", snapshot.scanRestarts)
+            .put("coalescedStarts", snapshot.scanStartsCoalesced)
+            .put("deferredStarts", snapshot.scanStartsDeferred)
+            .put("watchdogRestarts", snapshot.scanWatchdogRestarts)
+            .put("failures", toCodes(snapshot.scanFailures))
+            .put("handovers", snapshot.scanHandovers)
+            .put("handoverGapP50Millis", snapshot.scanHandoverGapP50)
+            .put("handoverGapP99Millis", snapshot.scanHandoverGapP99);
+
+        JSObject events = new JSObject()
+            .put("found", snapshot.found)
+            .put("lost", snapshot.lost)
+            .put("updated", snapshot.updated)
+            .put("foundRate", snapshot.foundRate)
+            .put("lostRate", snapshot.lostRate)
+            .put("updatedRate", snapshot.updatedRate)
+            .put("latencyP50Millis", snapshot.deliveryLatencyP50)
+            .put("latencyP99Millis", snapshot.deliveryLatencyP99);
+
+        JSObject advertise = new JSObject()
+            .put("starts", snapshot.advertiseStarts)
+            .put("failures", toCodes(snapshot.advertiseFailures))
+            .put("latencyP50Millis", snapshot.advertiseLatencyP50)
+            .put("latencyP99Millis", snapshot.advertiseLatencyP99)
+            .put("encodedBytes", snapshot.encodedBytes)
+            .put("handovers", snapshot.advertiseHandovers)
+            .put("handoverGapP50Millis", snapshot.advertiseHandoverGapP50)
+            .put("handoverGapP99Millis", snapshot.advertiseHandoverGapP99);
+
+        // Each result of a background scan would have woken up the app on its own.
+        long deliveries = BackgroundScan.getDeliveries(getContext());
+        long results = BackgroundScan.getResults(getContext());
+
+        JSObject background = new JSObject()
+            .put("deliveries", deliveries)
+            .put("results", results)
+            .put("wakeupsSaved", results - deliveries);
+
+        JSObject bluetooth = new JSObject()
+            .put("outages", snapshot.bluetoothOutages)
+            .put("recoveries", snapshot.bluetoothRecoveries)
+            .put("retries", snapshot.bluetoothRearmRetries)
+            .put("recoveryP50Millis", snapshot.bluetoothRecoveryTimeP50)
+            .put("recoveryP99Millis", snapshot.bluetoothRecoveryTimeP99);
+
+        JSObject caches = new JSObject()
+            .put("publication", new JSObject().put("hits", snapshot.publicationCacheHits).put("misses", snapshot.publicationCacheMisses))
+            .put("event", toCache(eventEncoder.getEventCache()))
+            .put("content", toCache(eventEncoder.getContentCache()));
+
+        return new JSObject()
+            .put("uptimeMillis", snapshot.uptimeMillis)
+            .put("intervalMillis", snapshot.intervalMillis)
+            .put("beacons", mScanner.getTrackedCount())
+            .put("scan", scan)
+            .put("events", events)
+            .put("advertise", advertise)
+            .put("background", background)
+            .put("bluetooth", bluetooth)
+            .put("transport", toTransport(mScanner.getTransportStats()))
+            .put("caches", caches)
+            .put("mainThreadMessages", Worker.getMainThreadMessages())
+            .put("workerMessages", Worker.getMessages());
+    }
+
+    private static JSArray toCodes(Map<Integer, Long> counts) {
+        JSArray codes = new JSArray();
+        for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+            codes.put(new JSObject().put("errorCode", entry.getKey()).put("count", entry.getValue()));
+        }
+
+        return codes;
+    }
+
+    private static JSObject toCache(PayloadCache<?, ?> cache) {
+        return new JSObject()
+            .put("hits", cache.getHits())
+            .put("misses", cache.getMisses())
+            .put("evictions", cache.getEvictions())
+            .put("size", cache.size());
+    }
+
+    private static JSArray toTransport(MessageTransport.Stats stats) {
+        JSArray transport = new JSArray();
+        for (int count = 1; count <= MessageTransport.MAX_FRAGMENTS; count++) {
+            if (stats.getMessages(count) > 0) {
+                transport.put(
+                    new JSObject()
+                        .put("fragments", count)
+                        .put("messages", stats.getMessages(count))
+                        .put("averageMillis", stats.getAverageMillis(count))
+                        .put("maxMillis", stats.getMaxMillis(count))
+                );
+            }
+        }
+
+        return transport;
+    }
+
     /**
      * Helper
      */
 
+    // Expands 16-bit and 32-bit UUIDs to the Bluetooth Base UUID.
+    // Short UUIDs are widened to 32 bits first, then to 128 bits.
+    @SuppressWarnings("fallthrough")
+    private static UUID parseUUID(String uuid) {
+        switch (uuid.length()) {
+            case 4:
+                uuid = "0000" + uuid;
+            // fall through
+            case 8:
+                uuid = uuid + "-" + "0000-1000-8000-00805f9b34fb";
+        }
+
+        return UUID.fromString(uuid);
+    }
+
+    private static List<BeaconFilter> parseFilters(JSObject optionsObject) {
+        if (optionsObject == null) {
+            return null;
+        }
+
+        List<BeaconFilter> filters = new ArrayList<>();
+
+        JSONArray filtersArray = optionsObject.optJSONArray("filters");
+        if (filtersArray != null) {
+            for (int i = 0; i < filtersArray.length(); i++) {
+                JSONObject filterObject = filtersArray.optJSONObject(i);
+                if (filterObject == null) {
+                    continue;
+                }
+
+                String uuid = optString(filterObject, "uuid");
+                String serviceData = optString(filterObject, "serviceData");
+                String serviceDataMask = optString(filterObject, "serviceDataMask");
+
+                filters.add(
+                    new BeaconFilter(
+                        uuid != null ? parseUUID(uuid) : null,
+                        serviceData != null ? Base64.decode(serviceData, Base64.DEFAULT) : null,
+                        serviceDataMask != null ? Base64.decode(serviceDataMask, Base64.DEFAULT) : null
+                    )
+                );
+            }
+        }
+
+        // An allow-list is a filter on the UUID alone.
+        JSONArray uuidsArray = optionsObject.optJSONArray("uuids");
+        if (uuidsArray != null) {
+            for (int i = 0; i < uuidsArray.length(); i++) {
+                String uuid = uuidsArray.isNull(i) ? null : uuidsArray.optString(i);
+                if (uuid != null && uuid.length() > 0) {
+                    filters.add(new BeaconFilter(parseUUID(uuid), null, null));
+                }
+            }
+        }
+
+        return filters.isEmpty() ? null : filters;
+    }
+
+    // optString() turns a JSON null into "null".
+    private static String optString(JSONObject object, String name) {
+        return object.isNull(name) ? null : object.optString(name);
+    }
+
+    private JSObject toEvent(UUID uuid, byte[] data) {
+        return eventEncoder.toEvent(uuid, data);
+    }
+
+    private JSObject toEvent(Subscription subscription, UUID uuid, byte[] data) {
+        return eventEncoder.toEvent(subscription.getHandle(), subscription.getServiceUUID(), uuid, data);
+    }
+
     private boolean isBluetoothEnabled() {
         BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 
@@ -559,5 +1425,9 @@ public class Nearby extends Plugin {
     private void stop() {
         doUnsubscribe();
         doUnpublish();
+
+        if (mScanner != null) {
+            mScanner.unsubscribeAll();
+        }
     }
 }
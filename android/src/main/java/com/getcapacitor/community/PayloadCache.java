@@ -0,0 +1,121 @@
+package com.getcapacitor.community;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of values derived from a payload, such as its encoded form.
+ *
+ * An entry only matches if its payload is identical to the one looked up, so a key collision never returns a value
+ * for another payload. The cache is bounded by the total weight of its entries rather than by their number.
+ */
+public class PayloadCache<K, V> {
+
+    private final long maxWeight;
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public PayloadCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized V get(K key, byte[] payload) {
+        Entry<V> entry = entries.get(key);
+
+        if (entry != null && (entry.payload == payload || Arrays.equals(entry.payload, payload))) {
+            hits++;
+
+            return entry.value;
+        }
+
+        misses++;
+
+        return null;
+    }
+
+    public synchronized void put(K key, byte[] payload, V value, int weight) {
+        if (weight > maxWeight) {
+            // Would evict everything else.
+            return;
+        }
+
+        Entry<V> previous = entries.put(key, new Entry<>(payload, value, weight));
+        if (previous != null) {
+            this.weight -= previous.weight;
+        }
+
+        this.weight += weight;
+
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (this.weight > maxWeight && iterator.hasNext()) {
+            Entry<V> eldest = iterator.next().getValue();
+
+            iterator.remove();
+
+            this.weight -= eldest.weight;
+            evictions++;
+        }
+    }
+
+    public synchronized void remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Entry
+     */
+
+    private static final class Entry<V> {
+
+        final byte[] payload;
+        final V value;
+        final int weight;
+
+        Entry(byte[] payload, V value, int weight) {
+            this.payload = payload;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
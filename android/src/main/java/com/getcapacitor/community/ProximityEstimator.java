@@ -0,0 +1,141 @@
+package com.getcapacitor.community;
+
+/**
+ * Estimates the distance of a beacon from its signal strength.
+ *
+ * The RSSI is smoothed with a one-dimensional Kalman filter and converted to a distance with the log-distance path
+ * loss model. The state is kept by the caller in primitive fields, this only holds the configuration.
+ */
+public class ProximityEstimator {
+
+    // Marks a missing RSSI or TX power, as ScanRecord#getTxPowerLevel does.
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    // Typical RSSI of a phone at 1 m, and the path loss exponent of free space.
+    public static final int DEFAULT_MEASURED_POWER = -59;
+    public static final double DEFAULT_PATH_LOSS_EXPONENT = 2;
+
+    public static final int ZONE_UNKNOWN = -1;
+    public static final int ZONE_IMMEDIATE = 0;
+    public static final int ZONE_NEAR = 1;
+    public static final int ZONE_FAR = 2;
+
+    // Upper bounds of the zones in meters.
+    private static final double IMMEDIATE_METERS = 0.5;
+    private static final double NEAR_METERS = 3.0;
+
+    // Variance of the RSSI between two samples, and of a single sample, in dB².
+    private static final double PROCESS_NOISE = 0.5;
+    private static final double MEASUREMENT_NOISE = 16;
+
+    // Free-space path loss at 1 m on 2.4 GHz, between an advertised TX power and the RSSI at 1 m.
+    private static final int PATH_LOSS_AT_ONE_METER = 41;
+
+    // Relative change of the distance worth reporting if the zone stays the same.
+    private static final double MIN_CHANGE = 0.1;
+
+    private final double measuredPower;
+    private final double pathLossExponent;
+
+    private final long minIntervalMillis;
+
+    /**
+     * @param measuredPower the RSSI at 1 m in dBm, used if the beacon does not advertise its TX power
+     * @param pathLossExponent 2 in free space, up to 4 indoors
+     * @param minIntervalMillis the minimum time between two reports of the same beacon
+     */
+    public ProximityEstimator(double measuredPower, double pathLossExponent, long minIntervalMillis) {
+        if (pathLossExponent <= 0) {
+            throw new IllegalArgumentException("pathLossExponent must be positive");
+        }
+
+        this.measuredPower = measuredPower;
+        this.pathLossExponent = pathLossExponent;
+
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    public double getMeasuredPower() {
+        return measuredPower;
+    }
+
+    public double getPathLossExponent() {
+        return pathLossExponent;
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    /**
+     * Returns the variance after folding a sample in, given the variance before.
+     * Use a negative variance for the first sample.
+     */
+    public static double variance(double variance) {
+        if (variance < 0) {
+            return MEASUREMENT_NOISE;
+        }
+
+        double predicted = variance + PROCESS_NOISE;
+
+        return predicted * MEASUREMENT_NOISE / (predicted + MEASUREMENT_NOISE);
+    }
+
+    /**
+     * Returns the smoothed RSSI after folding a sample in, given the smoothed RSSI and variance before.
+     */
+    public static double rssi(double rssi, double variance, int sample) {
+        if (variance < 0) {
+            return sample;
+        }
+
+        double predicted = variance + PROCESS_NOISE;
+        double gain = predicted / (predicted + MEASUREMENT_NOISE);
+
+        return rssi + gain * (sample - rssi);
+    }
+
+    public double distance(double rssi, int txPower) {
+        double reference = txPower != UNKNOWN ? txPower - PATH_LOSS_AT_ONE_METER : measuredPower;
+
+        return Math.pow(10, (reference - rssi) / (10 * pathLossExponent));
+    }
+
+    public static int zone(double distance) {
+        if (Double.isNaN(distance)) {
+            return ZONE_UNKNOWN;
+        }
+        if (distance < IMMEDIATE_METERS) {
+            return ZONE_IMMEDIATE;
+        }
+        if (distance < NEAR_METERS) {
+            return ZONE_NEAR;
+        }
+
+        return ZONE_FAR;
+    }
+
+    public static String zoneName(int zone) {
+        switch (zone) {
+            case ZONE_IMMEDIATE:
+                return "immediate";
+            case ZONE_NEAR:
+                return "near";
+            case ZONE_FAR:
+                return "far";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Returns whether a new estimate is worth reporting, at most once per interval.
+     */
+    public boolean shouldReport(double distance, int zone, double reportedDistance, int reportedZone, long now, long reportedAt) {
+        if (reportedZone != ZONE_UNKNOWN && now - reportedAt < minIntervalMillis) {
+            return false;
+        }
+
+        return zone != reportedZone || Math.abs(distance - reportedDistance) >= reportedDistance * MIN_CHANGE;
+    }
+}
@@ -0,0 +1,737 @@
+package com.getcapacitor.community;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseSettings;
+import android.os.Handler;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Publishes several beacons at once.
+ *
+ * Every beacon on air has an advertiser of its own, as many as the controller runs at once. If there are more beacons
+ * than that, the advertisers are handed from beacon to beacon in time slices, weighted per beacon.
+ *
+ * The publisher is confined to the worker thread, where its timers and the advertiser callbacks run. Calls which change
+ * it are handed off to the worker, queries must be made from it.
+ */
+public class Publisher {
+
+    private static Publisher instance = null;
+
+    // Error code of a publish() replaced by another one of the same UUID, next to the AdvertiseCallback error codes.
+    public static final int PUBLISH_REPLACED = 100;
+
+    // Advertisements run at once, if the controller supports multiple advertisements and does not run out before.
+    private static final int MAX_ADVERTISERS = 4;
+
+    private final BluetoothAdapter adapter;
+
+    private UUID serviceUUID;
+
+    Integer advertiseMode = AdvertiseSettings.ADVERTISE_MODE_BALANCED;
+    Integer txPowerLevel = AdvertiseSettings.ADVERTISE_TX_POWER_HIGH;
+
+    Boolean extendedAdvertising = false;
+    Integer primaryPhy = BluetoothDevice.PHY_LE_1M;
+    Integer secondaryPhy = BluetoothDevice.PHY_LE_1M;
+    Integer advertiseIntervalMillis = null;
+
+    Integer fragmentIntervalMillis = 1000;
+
+    // Time a beacon stays on air before its advertiser goes to the next one, if advertisers are shared.
+    Integer sliceMillis = 2000;
+
+    Integer maxAdvertisers = MAX_ADVERTISERS;
+
+    // Advertisers the controller has actually been able to run at once, learned when it runs out.
+    private int availableAdvertisers = MAX_ADVERTISERS;
+
+    private final Map<UUID, Publication> publications = new LinkedHashMap<>();
+
+    private final List<Slot> slots = new ArrayList<>();
+
+    private final AdvertisingScheduler<UUID> scheduler = new AdvertisingScheduler<>();
+
+    private final Handler handler = Worker.newHandler();
+    private final Runnable slicer = this::plan;
+
+    // Set while Bluetooth is off, publications wait to go on air until it is back on.
+    private boolean paused;
+
+    // Set when a slot could not be handed on because its advertiser had not reported back yet.
+    private boolean deferred;
+
+    public static synchronized Publisher getInstance(BluetoothAdapter adapter, UUID serviceUUID) {
+        if (instance == null) {
+            instance = new Publisher(adapter, serviceUUID);
+        }
+
+        return instance;
+    }
+
+    Publisher(BluetoothAdapter adapter, UUID serviceUUID) {
+        this.adapter = adapter;
+
+        this.serviceUUID = serviceUUID;
+    }
+
+    public UUID getServiceUUID() {
+        return serviceUUID;
+    }
+
+    public void setAdvertiseMode(Integer advertiseMode) {
+        Worker.handOff(handler, () -> this.advertiseMode = advertiseMode);
+    }
+
+    public void setTxPowerLevel(Integer txPowerLevel) {
+        Worker.handOff(handler, () -> this.txPowerLevel = txPowerLevel);
+    }
+
+    public void setExtendedAdvertising(Boolean extendedAdvertising) {
+        Worker.handOff(handler, () -> this.extendedAdvertising = extendedAdvertising);
+    }
+
+    public void setPrimaryPhy(Integer primaryPhy) {
+        Worker.handOff(handler, () -> this.primaryPhy = primaryPhy);
+    }
+
+    public void setSecondaryPhy(Integer secondaryPhy) {
+        Worker.handOff(handler, () -> this.secondaryPhy = secondaryPhy);
+    }
+
+    public void setAdvertiseIntervalMillis(Integer advertiseIntervalMillis) {
+        Worker.handOff(handler, () -> this.advertiseIntervalMillis = advertiseIntervalMillis);
+    }
+
+    public void setFragmentIntervalMillis(Integer fragmentIntervalMillis) {
+        Worker.handOff(handler, () -> this.fragmentIntervalMillis = fragmentIntervalMillis);
+    }
+
+    public void setSliceMillis(Integer sliceMillis) {
+        Worker.handOff(handler, () -> this.sliceMillis = sliceMillis);
+    }
+
+    public void setMaxAdvertisers(Integer maxAdvertisers) {
+        Worker.handOff(
+            handler,
+            () -> {
+                this.maxAdvertisers = maxAdvertisers;
+
+                this.availableAdvertisers = maxAdvertisers;
+            }
+        );
+    }
+
+    /**
+     * Publishes the beacon next to the beacons already published, or replaces the one with the same UUID.
+     * The callback succeeds once the beacon is on air, or scheduled for a later time slice.
+     */
+    public void publish(Advertiser.Beacon beacon, int weight, Integer ttlSeconds, Advertiser.Callback callback) {
+        Worker.handOff(handler, () -> doPublish(beacon, weight, ttlSeconds, callback));
+    }
+
+    private void doPublish(Advertiser.Beacon beacon, int weight, Integer ttlSeconds, Advertiser.Callback callback) {
+        UUID uuid = beacon.uuid();
+
+        Publication publication = publications.get(uuid);
+        if (publication != null) {
+            stopTimer(publication);
+
+            // The previous caller is not told about an advertisement it no longer owns.
+            publication.reject(PUBLISH_REPLACED, "Replaced by another publish of the same UUID.");
+
+            // Placing the new beacon reports to the new callback.
+            publication.resolved = false;
+            publication.callback = callback;
+            publication.beacon = beacon;
+
+            scheduler.add(uuid, weight, System.currentTimeMillis());
+
+            startTimer(publication, ttlSeconds);
+
+            Slot slot = slotOf(uuid);
+            if (slot == null) {
+                // On air in one of the next time slices.
+                publication.resolve(null);
+            } else if (slot.pending) {
+                // The running placement reports to the new callback, the new beacon follows.
+                slot.stale = true;
+            } else {
+                slot.advertiser.update(beacon, placed(publication, slot));
+            }
+            return;
+        }
+
+        publication = new Publication(beacon, callback);
+
+        publications.put(uuid, publication);
+
+        scheduler.add(uuid, weight, System.currentTimeMillis());
+
+        startTimer(publication, ttlSeconds);
+
+        plan();
+    }
+
+    /**
+     * Replaces the content of a published beacon, without interrupting its advertisement.
+     */
+    public void update(Advertiser.Beacon beacon, Advertiser.Callback callback) {
+        Worker.handOff(handler, () -> doUpdate(beacon, callback));
+    }
+
+    private void doUpdate(Advertiser.Beacon beacon, Advertiser.Callback callback) {
+        Publication publication = publications.get(beacon.uuid());
+        if (publication == null) {
+            return;
+        }
+
+        publication.beacon = beacon;
+
+        Slot slot = slotOf(beacon.uuid());
+        if (slot != null && slot.pending) {
+            // Goes on air once the advertiser has reported back.
+            slot.stale = true;
+
+            if (callback != null) {
+                callback.onSuccess(null);
+            }
+        } else if (slot != null) {
+            slot.advertiser.update(beacon, callback);
+        } else if (callback != null) {
+            // On air with the new content in one of the next time slices.
+            callback.onSuccess(null);
+        }
+    }
+
+    public void unpublish(UUID uuid) {
+        Worker.handOff(handler, () -> doUnpublish(uuid));
+    }
+
+    private void doUnpublish(UUID uuid) {
+        Publication publication = publications.remove(uuid);
+        if (publication == null) {
+            return;
+        }
+
+        stopTimer(publication);
+
+        scheduler.remove(uuid);
+
+        plan();
+    }
+
+    public void stop() {
+        Worker.handOff(handler, this::doStop);
+    }
+
+    private void doStop() {
+        handler.removeCallbacks(slicer);
+
+        for (Publication publication : publications.values()) {
+            stopTimer(publication);
+        }
+
+        publications.clear();
+
+        scheduler.clear();
+
+        for (Slot slot : slots) {
+            slot.advertiser.stop();
+        }
+
+        slots.clear();
+
+        // Other apps may have released their advertisements in the meantime.
+        availableAdvertisers = maxAdvertisers;
+    }
+
+    public boolean isPublishing() {
+        return !publications.isEmpty();
+    }
+
+    public boolean isPublishing(UUID uuid) {
+        return publications.containsKey(uuid);
+    }
+
+    public Set<UUID> getPublications() {
+        return new LinkedHashSet<>(publications.keySet());
+    }
+
+    public int getWeight(UUID uuid) {
+        return scheduler.getWeight(uuid);
+    }
+
+    public int getAdvertiserCount() {
+        return slots.size();
+    }
+
+    public boolean isExtendedAdvertising() {
+        for (Slot slot : slots) {
+            if (slot.advertiser.isExtendedAdvertising()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int getFragmentCount(UUID uuid) {
+        Publication publication = publications.get(uuid);
+
+        return publication != null ? publication.fragments : 0;
+    }
+
+    /**
+     * Returns the share of time the beacon has been on air, from 0 to 1.
+     */
+    public double getDutyCycle(UUID uuid) {
+        return scheduler.getDutyCycle(uuid, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the advertisements per second which carry the beacon, averaged over the time slices.
+     */
+    public double getRate(UUID uuid) {
+        Publication publication = publications.get(uuid);
+        if (publication == null || publication.intervalMillis <= 0) {
+            return 0;
+        }
+
+        return getDutyCycle(uuid) * 1000 / publication.intervalMillis;
+    }
+
+    /**
+     * Returns the complete messages per second, which takes all fragments of the content.
+     */
+    public double getMessageRate(UUID uuid) {
+        Publication publication = publications.get(uuid);
+        if (publication == null) {
+            return 0;
+        }
+
+        return getRate(uuid) / Math.max(1, publication.fragments);
+    }
+
+    /**
+     * Reconfigure
+     */
+
+    /**
+     * Changes the namespace, advertise mode and TX power, of the beacons on air too.
+     *
+     * Each advertiser hands its beacon over, and the callback is told how long the beacon was not advertised meanwhile.
+     * Beacons waiting for a later time slice go on air with the new configuration.
+     */
+    public void reconfigure(UUID serviceUUID, Integer advertiseMode, Integer txPowerLevel, Callback callback) {
+        Worker.handOff(handler, () -> doReconfigure(serviceUUID, advertiseMode, txPowerLevel, callback));
+    }
+
+    private void doReconfigure(UUID serviceUUID, Integer advertiseMode, Integer txPowerLevel, Callback callback) {
+        if (serviceUUID != null) {
+            this.serviceUUID = serviceUUID;
+        }
+
+        if (advertiseMode != null) {
+            this.advertiseMode = advertiseMode;
+        }
+
+        if (txPowerLevel != null) {
+            this.txPowerLevel = txPowerLevel;
+        }
+
+        for (Slot slot : new ArrayList<>(slots)) {
+            Publication publication = publications.get(slot.uuid);
+            if (publication == null) {
+                slot.advertiser.reconfigure(serviceUUID, advertiseMode, txPowerLevel, null, null);
+                continue;
+            }
+
+            Advertiser.Callback placed = placed(publication, slot);
+
+            slot.advertiser.reconfigure(
+                serviceUUID,
+                advertiseMode,
+                txPowerLevel,
+                publication.beacon,
+                new Advertiser.Callback() {
+                    @Override
+                    public void onSuccess(AdvertiseSettings settings) {
+                        placed.onSuccess(settings);
+
+                        if (callback != null) {
+                            callback.onReconfigured(publication.beacon.uuid(), slot.advertiser.getLastGapMillis());
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(int errorCode, String errorMessage) {
+                        placed.onFailure(errorCode, errorMessage);
+                    }
+                }
+            );
+        }
+    }
+
+    /**
+     * Bluetooth
+     */
+
+    /**
+     * Stops the advertisers while Bluetooth is off, keeping the publications and their time to live. Called on the worker,
+     * like {@link #resume()}.
+     */
+    public void pause() {
+        paused = true;
+
+        handler.removeCallbacks(slicer);
+
+        for (Slot slot : slots) {
+            slot.advertiser.stop();
+        }
+
+        slots.clear();
+    }
+
+    /**
+     * Advertises the publications again after Bluetooth is back on.
+     *
+     * @return whether publishing has been re-armed, false if Bluetooth is not ready yet
+     */
+    public boolean resume() {
+        if (!paused) {
+            return true;
+        }
+
+        if (!adapter.isEnabled() || adapter.getState() != BluetoothAdapter.STATE_ON || adapter.getBluetoothLeAdvertiser() == null) {
+            return false;
+        }
+
+        paused = false;
+
+        // The controller starts over with all of its advertisers.
+        availableAdvertisers = maxAdvertisers;
+
+        plan();
+
+        return true;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Scheduler
+     */
+
+    private int capacity() {
+        if (!adapter.isMultipleAdvertisementSupported()) {
+            return 1;
+        }
+
+        return Math.max(1, Math.min(maxAdvertisers, availableAdvertisers));
+    }
+
+    // Hands the advertisers to the beacons of the next time slice.
+    private void plan() {
+        handler.removeCallbacks(slicer);
+
+        deferred = false;
+
+        if (paused) {
+            // Accepted all the same, they go on air when resumed.
+            for (Publication publication : publications.values()) {
+                publication.resolve(null);
+            }
+            return;
+        }
+
+        int capacity = capacity();
+
+        List<UUID> onAir = scheduler.next(capacity, System.currentTimeMillis());
+
+        // Beacons which are on air already keep their advertiser.
+        List<UUID> waiting = new ArrayList<>(onAir);
+        List<Slot> free = new ArrayList<>();
+
+        for (Slot slot : slots) {
+            if (waiting.remove(slot.uuid)) {
+                if (slot.pending && !publications.get(slot.uuid).resolved) {
+                    // Published again while the previous placement was running.
+                    slot.stale = true;
+                }
+                continue;
+            }
+
+            if (slot.pending) {
+                // Its callback would be credited to the next beacon, so it is handed on once it has reported back.
+                deferred = true;
+                continue;
+            }
+
+            free.add(slot);
+        }
+
+        for (Slot slot : free) {
+            if (!waiting.isEmpty()) {
+                Publication publication = publications.get(waiting.remove(0));
+
+                slot.uuid = publication.beacon.uuid();
+                slot.advertiser.update(publication.beacon, placed(publication, slot));
+            } else {
+                slot.advertiser.stop();
+
+                slots.remove(slot);
+            }
+        }
+
+        for (UUID uuid : waiting) {
+            if (slots.size() >= capacity) {
+                deferred = true;
+                break;
+            }
+
+            Publication publication = publications.get(uuid);
+
+            Slot slot = new Slot(newAdvertiser(), uuid);
+            slots.add(slot);
+
+            slot.advertiser.start(publication.beacon, null, placed(publication, slot));
+        }
+
+        // Beacons waiting for a later time slice have been accepted all the same.
+        for (Publication publication : publications.values()) {
+            if (!onAir.contains(publication.beacon.uuid())) {
+                publication.resolve(null);
+            }
+        }
+
+        if (publications.size() > onAir.size()) {
+            handler.postDelayed(slicer, sliceDelay());
+        }
+    }
+
+    // A slice lasts long enough to send all fragments of the beacons on air.
+    private long sliceDelay() {
+        long delay = sliceMillis;
+
+        for (Slot slot : slots) {
+            delay = Math.max(delay, (long) slot.advertiser.getFragmentCount() * fragmentIntervalMillis);
+        }
+
+        return delay;
+    }
+
+    private Advertiser.Callback placed(Publication publication, Slot slot) {
+        slot.pending = true;
+
+        return new Advertiser.Callback() {
+            @Override
+            public void onSuccess(AdvertiseSettings settings) {
+                slot.pending = false;
+
+                publication.intervalMillis = slot.advertiser.getIntervalMillis();
+                publication.fragments = slot.advertiser.getFragmentCount();
+
+                publication.resolve(settings);
+
+                settled(slot);
+            }
+
+            @Override
+            public void onFailure(int errorCode, String errorMessage) {
+                slot.pending = false;
+                slot.stale = false;
+
+                if (!slots.remove(slot)) {
+                    // Stopped in the meantime.
+                    return;
+                }
+
+                slot.advertiser.stop();
+
+                if (errorCode == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS && !slots.isEmpty()) {
+                    // The controller ran out, share the advertisers which are running.
+                    Log.i("Publisher", String.format("Sharing %d advertisers between %d beacons.", slots.size(), publications.size()));
+
+                    availableAdvertisers = slots.size();
+
+                    plan();
+                    return;
+                }
+
+                UUID uuid = publication.beacon.uuid();
+
+                if (publications.get(uuid) == publication) {
+                    publications.remove(uuid);
+
+                    stopTimer(publication);
+
+                    scheduler.remove(uuid);
+                }
+
+                publication.reject(errorCode, errorMessage);
+
+                plan();
+            }
+        };
+    }
+
+    // Catches up with what changed while the advertiser of the slot had not reported back.
+    private void settled(Slot slot) {
+        if (!slots.contains(slot)) {
+            // Stopped in the meantime.
+            return;
+        }
+
+        if (slot.stale) {
+            slot.stale = false;
+
+            Publication publication = publications.get(slot.uuid);
+            if (publication != null) {
+                slot.advertiser.update(publication.beacon, placed(publication, slot));
+                return;
+            }
+        }
+
+        if (deferred) {
+            plan();
+        }
+    }
+
+    private Advertiser newAdvertiser() {
+        Advertiser advertiser = new Advertiser(adapter, serviceUUID);
+
+        advertiser.setAdvertiseMode(advertiseMode);
+        advertiser.setTxPowerLevel(txPowerLevel);
+
+        advertiser.setExtendedAdvertising(extendedAdvertising);
+        advertiser.setPrimaryPhy(primaryPhy);
+        advertiser.setSecondaryPhy(secondaryPhy);
+        advertiser.setAdvertiseIntervalMillis(advertiseIntervalMillis);
+
+        advertiser.setFragmentIntervalMillis(fragmentIntervalMillis);
+
+        return advertiser;
+    }
+
+    private Slot slotOf(UUID uuid) {
+        for (Slot slot : slots) {
+            if (uuid.equals(slot.uuid)) {
+                return slot;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Timer
+     */
+
+    private void startTimer(Publication publication, Integer ttlSeconds) {
+        if (ttlSeconds != null && publication.callback != null) {
+            Advertiser.Callback callback = publication.callback;
+
+            publication.expiry = callback::onExpired;
+
+            // Sets the time to live in seconds for the publish.
+            handler.postDelayed(publication.expiry, ttlSeconds * 1000);
+        }
+    }
+
+    private void stopTimer(Publication publication) {
+        if (publication.expiry != null) {
+            handler.removeCallbacks(publication.expiry);
+
+            publication.expiry = null;
+        }
+    }
+
+    /**
+     * Callback
+     */
+
+    public abstract static class Callback {
+
+        public void onReconfigured(UUID uuid, double gapMillis) {}
+    }
+
+    /**
+     * Publication
+     */
+
+    private static class Publication {
+
+        Advertiser.Beacon beacon;
+
+        Advertiser.Callback callback;
+        boolean resolved;
+
+        Runnable expiry;
+
+        // As last seen on air.
+        long intervalMillis;
+        int fragments;
+
+        Publication(Advertiser.Beacon beacon, Advertiser.Callback callback) {
+            this.beacon = beacon;
+
+            this.callback = callback;
+        }
+
+        void resolve(AdvertiseSettings settings) {
+            if (!resolved) {
+                resolved = true;
+
+                if (callback != null) {
+                    callback.onSuccess(settings);
+                }
+            }
+        }
+
+        void reject(int errorCode, String errorMessage) {
+            if (!resolved) {
+                resolved = true;
+
+                if (callback != null) {
+                    callback.onFailure(errorCode, errorMessage);
+                }
+            }
+        }
+    }
+
+    /**
+     * Slot
+     */
+
+    private static class Slot {
+
+        final Advertiser advertiser;
+
+        // The beacon on air.
+        UUID uuid;
+
+        // Set until the advertiser has reported back on the beacon it has been given.
+        boolean pending;
+
+        // Set if the beacon changed meanwhile.
+        boolean stale;
+
+        Slot(Advertiser advertiser, UUID uuid) {
+            this.advertiser = advertiser;
+
+            this.uuid = uuid;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.getcapacitor.community;
+
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanResult;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.util.Log;
+import java.util.List;
+
+/**
+ * Receives the batches of results of a background scan, and hands them to the worker thread.
+ */
+public class ScanReceiver extends BroadcastReceiver {
+
+    private static Handler handler;
+
+    private static synchronized Handler getHandler() {
+        if (handler == null) {
+            handler = Worker.newHandler();
+        }
+
+        return handler;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!BackgroundScan.ACTION_SCAN_RESULT.equals(intent.getAction())) {
+            return;
+        }
+
+        int errorCode = intent.getIntExtra(BluetoothLeScanner.EXTRA_ERROR_CODE, 0);
+        if (errorCode != 0) {
+            Log.e("ScanReceiver", String.format("onScanFailed(errorCode=%d)", errorCode));
+
+            Metrics.getInstance().scanFailures.record(errorCode);
+            return;
+        }
+
+        List<ScanResult> results = intent.getParcelableArrayListExtra(BluetoothLeScanner.EXTRA_LIST_SCAN_RESULT);
+        if (results == null || results.isEmpty()) {
+            return;
+        }
+
+        Context applicationContext = context.getApplicationContext();
+
+        // Keeps the process alive until the batch is processed.
+        PendingResult pendingResult = goAsync();
+
+        getHandler()
+            .post(
+                () -> {
+                    try {
+                        BackgroundScan.delivered(applicationContext, results.size());
+
+                        Scanner scanner = Scanner.getInstance();
+                        if (scanner != null && scanner.isBackgroundScanning()) {
+                            scanner.ingest(results);
+                        } else {
+                            BackgroundScan.process(applicationContext, results);
+                        }
+                    } finally {
+                        pendingResult.finish();
+                    }
+                }
+            );
+    }
+}
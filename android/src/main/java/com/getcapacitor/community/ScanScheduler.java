@@ -0,0 +1,177 @@
+package com.getcapacitor.community;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the scan mode from the recent discovery rate.
+ *
+ * The scheduler ramps up to low latency as soon as new beacons appear, holds balanced while known beacons come and
+ * go or change, and backs off one step at a time while the neighborhood stays stable. Every switch restarts the scan,
+ * so a switch is deferred while it would use up the start budget.
+ */
+public class ScanScheduler {
+
+    // Same values as ScanSettings.SCAN_MODE_*.
+    public static final int MODE_LOW_POWER = 0;
+    public static final int MODE_BALANCED = 1;
+    public static final int MODE_LOW_LATENCY = 2;
+
+    // Number of quiet windows before backing off one step.
+    private static final int STABLE_WINDOWS = 3;
+
+    // Starts kept in reserve for subscribe calls and restarts which cannot wait.
+    private static final int RESERVED_STARTS = 2;
+
+    private final ScanStartLimiter limiter;
+
+    private final AtomicInteger found = new AtomicInteger();
+    private final AtomicInteger lost = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+
+    private int mode;
+    private String reason = "initial";
+
+    private int stableWindows;
+
+    private int pendingMode = -1;
+    private String pendingReason;
+
+    private long switches;
+    private long deferrals;
+
+    public ScanScheduler(ScanStartLimiter limiter, int initialMode) {
+        this.limiter = limiter;
+
+        this.mode = clamp(initialMode);
+    }
+
+    public void onFound() {
+        found.incrementAndGet();
+    }
+
+    public void onLost() {
+        lost.incrementAndGet();
+    }
+
+    public void onUpdated() {
+        updated.incrementAndGet();
+    }
+
+    public synchronized int getMode() {
+        return mode;
+    }
+
+    public synchronized String getReason() {
+        return reason;
+    }
+
+    public synchronized long getSwitches() {
+        return switches;
+    }
+
+    public synchronized long getDeferrals() {
+        return deferrals;
+    }
+
+    /**
+     * Returns how long to scan in the current mode before evaluating again.
+     */
+    public synchronized long getWindowMillis() {
+        switch (mode) {
+            case MODE_LOW_LATENCY:
+                return 5 * 1000;
+            case MODE_BALANCED:
+                return 10 * 1000;
+            default:
+                return 20 * 1000;
+        }
+    }
+
+    /**
+     * Returns when the next evaluation is due, earlier than the window if a switch has been deferred.
+     */
+    public synchronized long nextEvaluationAt(long now) {
+        long next = now + getWindowMillis();
+
+        if (pendingMode >= 0) {
+            next = Math.min(next, limiter.nextStartAt(now, RESERVED_STARTS));
+        }
+
+        return Math.max(next, now + 1000);
+    }
+
+    /**
+     * Evaluates the window which has just ended.
+     *
+     * @return whether the mode has changed and the scan needs to be restarted
+     */
+    public synchronized boolean evaluate(long now) {
+        int found = this.found.getAndSet(0);
+        int lost = this.lost.getAndSet(0);
+        int updated = this.updated.getAndSet(0);
+
+        int target = mode;
+        String targetReason = null;
+
+        if (found > 0) {
+            stableWindows = 0;
+
+            target = MODE_LOW_LATENCY;
+            targetReason = String.format("%d found", found);
+        } else if (lost + updated > 0) {
+            stableWindows = 0;
+
+            if (mode < MODE_BALANCED) {
+                target = MODE_BALANCED;
+                targetReason = String.format("%d lost, %d updated", lost, updated);
+            }
+        } else if (++stableWindows >= STABLE_WINDOWS) {
+            stableWindows = 0;
+
+            if (mode > MODE_LOW_POWER) {
+                target = mode - 1;
+                targetReason = String.format("stable for %d windows", STABLE_WINDOWS);
+            }
+        }
+
+        if (target == mode) {
+            if (pendingMode < 0) {
+                return false;
+            }
+
+            // Nothing new, but a previous switch is still waiting.
+            target = pendingMode;
+            targetReason = pendingReason;
+        }
+
+        if (target == mode) {
+            pendingMode = -1;
+            pendingReason = null;
+
+            return false;
+        }
+
+        if (!limiter.canStart(now, RESERVED_STARTS)) {
+            pendingMode = target;
+            pendingReason = targetReason;
+
+            deferrals++;
+
+            return false;
+        }
+
+        mode = target;
+        reason = targetReason;
+
+        pendingMode = -1;
+        pendingReason = null;
+
+        switches++;
+
+        return true;
+    }
+
+    private static int clamp(int mode) {
+        return Math.max(MODE_LOW_POWER, Math.min(MODE_LOW_LATENCY, mode));
+    }
+}
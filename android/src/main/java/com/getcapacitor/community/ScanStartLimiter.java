@@ -0,0 +1,74 @@
+package com.getcapacitor.community;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of recent scan starts to stay within the scan start limit of Android.
+ *
+ * Starting more than 5 scans within 30 seconds gets an app silently throttled: the scan is reported as started but no
+ * results are delivered, and onScanFailed is never called.
+ */
+public class ScanStartLimiter {
+
+    public static final int MAX_STARTS = 5;
+    public static final long WINDOW_MILLIS = 30 * 1000;
+
+    // Ring buffer of the most recent start times.
+    private final long[] starts = new long[MAX_STARTS];
+    private int next;
+    private int count;
+
+    /**
+     * Returns the number of starts which are left in the window at the given time.
+     */
+    public synchronized int available(long now) {
+        int used = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (now - starts[i] < WINDOW_MILLIS) {
+                used++;
+            }
+        }
+
+        return MAX_STARTS - used;
+    }
+
+    /**
+     * Returns whether a start is possible while keeping the given number of starts in reserve.
+     */
+    public synchronized boolean canStart(long now, int reserve) {
+        return available(now) > reserve;
+    }
+
+    /**
+     * Returns the earliest time at which a start is possible while keeping the given number of starts in reserve.
+     */
+    public synchronized long nextStartAt(long now, int reserve) {
+        if (canStart(now, reserve)) {
+            return now;
+        }
+
+        long[] window = new long[count];
+        int used = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (now - starts[i] < WINDOW_MILLIS) {
+                window[used++] = starts[i];
+            }
+        }
+
+        Arrays.sort(window, 0, used);
+
+        // The oldest starts have to leave the window first.
+        int expiring = used - (MAX_STARTS - Math.min(reserve, MAX_STARTS - 1)) + 1;
+
+        return window[expiring - 1] + WINDOW_MILLIS;
+    }
+
+    public synchronized void record(long now) {
+        starts[next] = now;
+
+        next = (next + 1) % MAX_STARTS;
+        count = Math.min(count + 1, MAX_STARTS);
+    }
+}
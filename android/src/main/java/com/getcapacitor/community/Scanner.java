@@ -1,5 +1,6 @@
 package com.getcapacitor.community;
 
+import android.app.PendingIntent;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
@@ -7,11 +8,15 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,36 +27,205 @@ public class Scanner {
     private static Scanner instance = null;
 
     private final BluetoothAdapter adapter;
-    private final BeaconCallback beaconCallback;
+    private volatile BeaconCallback beaconCallback;
 
-    private final UUID serviceUUID;
+    private volatile UUID serviceUUID;
+
+    // The namespace the default subscription is tracked in, which follows the configured one with the scan.
+    private UUID trackedServiceUUID;
 
     private Integer scanMode = ScanSettings.SCAN_MODE_BALANCED;
+    private long reportDelayMillis = 0;
+
+    private List<BeaconFilter> beaconFilters;
+    private boolean mHardwareFiltering;
+
+    // Controllers only have a few filter slots, beyond that filtering falls back to software.
+    private static final int MAX_HARDWARE_FILTERS = 8;
 
     private BluetoothLeScanner scanner;
-    private ScanCallback scanCallback;
+    private volatile ScanCallback scanCallback;
+    private Callback sessionCallback;
+
+    // Each scan callback is a generation of its own, results of a callback handed over are dropped.
+    private int generation;
+    private volatile long handoverAt;
+    private volatile Callback reconfigureCallback;
+    private final Runnable handoverRunnable = this::handOverDeferred;
+
+    // Whether subscribed, and whether the Bluetooth LE scan is running, which lingers for a moment after a stop.
+    private volatile boolean mScanning;
+    private boolean mHardwareScanning;
+
+    // Settings of the running Bluetooth LE scan.
+    private List<ScanFilter> activeFilters;
+    private int activeMode;
+    private long activeReportDelay;
+    private boolean activeBackground;
+
+    // Scans through a PendingIntent when set, so results keep coming while the app is not running.
+    private Context context;
+    private boolean background;
+    private PendingIntent pendingIntent;
+
+    private static final long LINGER_MILLIS = 2000;
+    private final Runnable lingerRunnable = this::linger;
 
-    private boolean mScanning;
+    private final Runnable deferredRunnable = this::startDeferred;
 
-    private final Handler handler = new Handler();
+    // Android downgrades scans running for 30 minutes to opportunistic, so sessions are renewed before that.
+    private static final long SESSION_MILLIS = 25 * 60 * 1000;
+    private final Runnable watchdogRunnable = this::renewScan;
+
+    // Owns the tracker, scan callbacks are handed off to it.
+    private final Handler handler = Worker.newHandler();
     private Runnable runnable;
 
     private static final long ttlSeconds = 10;
 
+    // Granularity of the liveness sweep, beacons are declared lost at most one tick late.
+    private static final long tickMillis = 1000;
+
+    private final BeaconTracker tracker;
+
+    // Sightings kept per beacon by default, and the ceiling on the memory of all of them.
+    private static final int HISTORY_CAPACITY = 32;
+    private static final long HISTORY_MAX_BYTES = 256 * 1024;
+
+    private final Runnable sweeper = this::sweep;
+
+    // When Bluetooth went off while in use, 0 if it has not, timeouts are frozen meanwhile.
+    private volatile long pausedAt;
+
+    private final ScanStartLimiter limiter = new ScanStartLimiter();
+
+    private volatile ScanScheduler scheduler;
+    private Callback scheduleCallback;
+    private final Runnable scheduleRunnable = this::schedule;
+
+    private final Metrics metrics = Metrics.getInstance();
+
+    // When the scan result being ingested was received, only used on the worker thread.
+    private long receivedAt;
+
+    // When the previous scan result was received and by which scan callback, to measure the gap of a handover.
+    private long lastReceivedAt;
+    private int lastGeneration;
+
+    // Subscriptions to namespaces of their own by handle, carried by the same Bluetooth LE scan.
+    private final Map<Integer, Subscription> subscriptions = new LinkedHashMap<>();
+    private int nextHandle = 1;
+    private volatile Subscription[] activeSubscriptions = new Subscription[0];
+
+    // Trackers by the service UUIDs which are routed to them, null while there are no other subscriptions.
+    private volatile BeaconRegistry<BeaconTracker[]> routes;
+
+    // Only used on the worker thread, to route scan results.
+    private final AdvertisementParser parser = new AdvertisementParser();
+    private BeaconTracker[] routed = new BeaconTracker[4];
+
     public static synchronized Scanner getInstance(BluetoothAdapter adapter, UUID serviceUUID, BeaconCallback beaconCallback) {
         if (instance == null) {
             instance = new Scanner(adapter, serviceUUID, beaconCallback);
+        } else {
+            // Carry on with the beacons being tracked, the caller reconfigures for its namespace.
+            instance.beaconCallback = beaconCallback;
         }
 
         return instance;
     }
 
+    // Returns the scanner if it has been created in this process.
+    public static synchronized Scanner getInstance() {
+        return instance;
+    }
+
     Scanner(BluetoothAdapter adapter, UUID serviceUUID, BeaconCallback beaconCallback) {
         this.adapter = adapter;
 
         this.serviceUUID = serviceUUID;
+        this.trackedServiceUUID = serviceUUID;
 
         this.beaconCallback = beaconCallback;
+
+        this.tracker =
+            new BeaconTracker(
+                serviceUUID,
+                ttlSeconds * 1000,
+                tickMillis,
+                new BeaconTracker.Listener() {
+                    @Override
+                    public void onFound(UUID uuid, byte[] data) {
+                        if (scheduler != null) {
+                            scheduler.onFound();
+                        }
+
+                        if (Scanner.this.beaconCallback != null) {
+                            Scanner.this.beaconCallback.onFound(uuid, data);
+                        }
+
+                        metrics.found.increment();
+                        delivered();
+                    }
+
+                    @Override
+                    public void onLost(UUID uuid, byte[] data) {
+                        if (scheduler != null) {
+                            scheduler.onLost();
+                        }
+
+                        if (mScanning && Scanner.this.beaconCallback != null) {
+                            Scanner.this.beaconCallback.onLost(uuid, data);
+                        }
+
+                        metrics.lost.increment();
+                    }
+
+                    @Override
+                    public void onUpdated(UUID uuid, byte[] data) {
+                        if (scheduler != null) {
+                            scheduler.onUpdated();
+                        }
+
+                        if (Scanner.this.beaconCallback != null) {
+                            Scanner.this.beaconCallback.onUpdated(uuid, data);
+                        }
+
+                        metrics.updated.increment();
+                        delivered();
+                    }
+
+                    @Override
+                    public void onProximity(UUID uuid, double rssi, double distance, int zone) {
+                        if (Scanner.this.beaconCallback != null) {
+                            Scanner.this.beaconCallback.onProximity(uuid, rssi, distance, zone);
+                        }
+                    }
+
+                    @Override
+                    public void onActive() {
+                        handler.removeCallbacks(sweeper);
+                        handler.postDelayed(sweeper, tickMillis);
+                    }
+                }
+            );
+
+        this.tracker.setHistory(HISTORY_CAPACITY, HISTORY_MAX_BYTES);
+
+        // Timeouts follow the interval each beacon is seen at, the time to live applies until it is known.
+        this.tracker.setLostTimeout(
+            new LostTimeoutPolicy(
+                true,
+                ttlSeconds * 1000,
+                LostTimeoutPolicy.DEFAULT_MULTIPLIER,
+                LostTimeoutPolicy.DEFAULT_MIN_MILLIS,
+                LostTimeoutPolicy.DEFAULT_MAX_MILLIS
+            )
+        );
+    }
+
+    public UUID getServiceUUID() {
+        return serviceUUID;
     }
 
     public Integer getScanMode() {
@@ -62,6 +236,88 @@ public class Scanner {
         this.scanMode = scanMode;
     }
 
+    public List<BeaconFilter> getFilters() {
+        return beaconFilters;
+    }
+
+    // Sets the filters a beacon needs to match any of, takes effect when the scan is started.
+    public void setFilters(List<BeaconFilter> filters) {
+        this.beaconFilters = filters;
+    }
+
+    public void setContext(Context context) {
+        this.context = context;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    // Sets whether to scan in the background, which needs Android 8.0, takes effect when the scan is started.
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    public boolean isBackgroundScanning() {
+        return isActive() && activeBackground;
+    }
+
+    public LostTimeoutPolicy getLostTimeout() {
+        return tracker.getLostTimeout();
+    }
+
+    public void setLostTimeout(LostTimeoutPolicy lostTimeout) {
+        tracker.setLostTimeout(lostTimeout);
+    }
+
+    public ProximityEstimator getProximity() {
+        return tracker.getProximity();
+    }
+
+    // Sets how distances are estimated, or null to not estimate them.
+    public void setProximity(ProximityEstimator proximity) {
+        tracker.setProximity(proximity);
+    }
+
+    public boolean isHardwareFiltering() {
+        return mHardwareFiltering;
+    }
+
+    public boolean isAdaptive() {
+        return scheduler != null;
+    }
+
+    // Lets the scan mode follow the discovery rate, starting from the configured scan mode.
+    public void setAdaptive(boolean adaptive) {
+        stopScheduler();
+
+        if (adaptive) {
+            scheduler = new ScanScheduler(limiter, scanMode != null ? scanMode : ScanSettings.SCAN_MODE_BALANCED);
+
+            if (mScanning) {
+                startScheduler(scheduleCallback);
+            }
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public ScanScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public ScanStartLimiter getLimiter() {
+        return limiter;
+    }
+
+    public long getReportDelayMillis() {
+        return reportDelayMillis;
+    }
+
+    public void setReportDelayMillis(long reportDelayMillis) {
+        this.reportDelayMillis = reportDelayMillis;
+    }
+
     public void start() {
         start(null, null);
     }
@@ -70,288 +326,1192 @@ public class Scanner {
         start(null, callback);
     }
 
-    public void start(Integer ttlSeconds, Callback callback) {
+    public synchronized void start(Integer ttlSeconds, Callback callback) {
         stopTimer();
 
         if (mScanning) {
             stop();
         }
 
+        if (!prepare(callback)) {
+            return;
+        }
+
+        sessionCallback = callback;
+
+        mScanning = true;
+
+        retarget();
+
+        route();
+
+        if (scansInBackground()) {
+            // Remember the subscription, and pick up the beacons found while the app was not running.
+            BackgroundScan.started(context, serviceUUID, tracker.getLostTimeout().getInitialMillis(), beaconFilters);
+
+            Worker.handOff(handler, this::restore);
+        }
+
+        requestScan();
+
+        if (ttlSeconds != null) {
+            startTimer(ttlSeconds, callback);
+        }
+
+        if (scheduler != null) {
+            startScheduler(callback);
+        }
+    }
+
+    // Gets the Bluetooth LE scanner and the scan callback ready, or reports why scanning is not possible.
+    private boolean prepare(Callback callback) {
         scanner = adapter.getBluetoothLeScanner();
 
         if (scanner == null || !isBluetoothAvailable()) {
             int errorCode = android.bluetooth.le.ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED;
 
+            metrics.scanFailures.record(errorCode);
+
             if (callback != null) {
                 callback.onFailure(errorCode, scanFailed(errorCode));
             }
 
+            return false;
+        }
+
+        if (scanCallback == null) {
+            scanCallback = newScanCallback();
+        }
+
+        stopLeftoverScan();
+
+        return true;
+    }
+
+    // A background scan left running by a previous process would keep delivering results, unless it is replaced.
+    private void stopLeftoverScan() {
+        if (
+            context == null ||
+            scansInBackground() ||
+            (mHardwareScanning && activeBackground) ||
+            !BackgroundScan.isStarted(context)
+        ) {
             return;
         }
 
-        List<ScanFilter> filters = new ArrayList<>();
-        ScanFilter filter = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUUID)).build();
-        filters.add(filter);
+        if (pendingIntent == null) {
+            pendingIntent = BackgroundScan.pendingIntent(context);
+        }
 
-        // https://developer.android.com/reference/android/bluetooth/le/ScanSettings.Builder
-        ScanSettings settings = new ScanSettings.Builder()
-            // Set scan mode for Bluetooth LE scan.
-            .setScanMode(scanMode)
-            .build();
+        scanner.stopScan(pendingIntent);
 
-        if (scanCallback == null) {
-            // Bluetooth LE scan callbacks. Scan results are reported using these callbacks.
-            // https://developer.android.com/reference/android/bluetooth/le/ScanCallback
-            scanCallback =
-                new ScanCallback() {
-                    @Override
-                    // Callback when a BLE advertisement has been found.
-                    public void onScanResult(int callbackType, ScanResult result) {
-                        super.onScanResult(callbackType, result);
-
-                        // Represents a scan record from Bluetooth LE scan.
-                        ScanRecord record = result.getScanRecord();
-
-                        Map<ParcelUuid, byte[]> map = record.getServiceData();
-                        for (ParcelUuid key : map.keySet()) {
-                            UUID uuid = key.getUuid();
-                            byte[] data = map.get(key);
-
-                            if (uuid.compareTo(serviceUUID) == 0) {
-                                continue;
-                            }
-
-                            synchronized (beacons) {
-                                Beacon beacon = beacons.get(uuid);
-                                if (beacon != null) {
-                                    beacon.alive();
-                                } else {
-                                    beacons.put(uuid, new Beacon(uuid));
-
-                                    if (beaconCallback != null) {
-                                        beaconCallback.onFound(uuid, data);
-                                    }
-                                }
-                            }
-                        }
+        BackgroundScan.stopped(context);
+    }
 
-                        List<ParcelUuid> serviceUuids = record.getServiceUuids();
-                        for (ParcelUuid serviceUuid : serviceUuids) {
-                            UUID uuid = serviceUuid.getUuid();
-
-                            if (uuid.compareTo(serviceUUID) == 0) {
-                                continue;
-                            }
-
-                            synchronized (beacons) {
-                                Beacon beacon = beacons.get(uuid);
-                                if (beacon != null) {
-                                    beacon.alive();
-                                } else {
-                                    beacons.put(uuid, new Beacon(uuid));
-
-                                    if (beaconCallback != null) {
-                                        beaconCallback.onFound(uuid, null);
-                                    }
-                                }
-                            }
-                        }
-                    }
+    private ScanCallback newScanCallback() {
+        int generation = ++this.generation;
 
-                    @Override
-                    public void onBatchScanResults(List<ScanResult> results) {
-                        super.onBatchScanResults(results);
-                    }
+        // Bluetooth LE scan callbacks. Scan results are reported using these callbacks.
+        // https://developer.android.com/reference/android/bluetooth/le/ScanCallback
+        return new ScanCallback() {
+            @Override
+            // Callback when a BLE advertisement has been found.
+            public void onScanResult(int callbackType, ScanResult result) {
+                super.onScanResult(callbackType, result);
 
-                    @Override
-                    // Callback when scan could not be started.
-                    public void onScanFailed(int errorCode) {
-                        Log.e("ScanCallback", String.format("onScanFailed(errorCode=%d)", errorCode));
+                if (this != scanCallback) {
+                    return;
+                }
 
-                        super.onScanFailed(errorCode);
+                long receivedAt = System.nanoTime();
 
-                        stop();
+                Worker.handOff(handler, () -> process(result, receivedAt, generation));
+            }
+
+            @Override
+            // Callback when batch results are delivered.
+            public void onBatchScanResults(List<ScanResult> results) {
+                super.onBatchScanResults(results);
+
+                if (this != scanCallback) {
+                    return;
+                }
 
-                        if (callback != null) {
-                            callback.onFailure(errorCode, scanFailed(errorCode));
+                long receivedAt = System.nanoTime();
+
+                // One hand-off for the whole batch.
+                Worker.handOff(
+                    handler,
+                    () -> {
+                        for (ScanResult result : results) {
+                            process(result, receivedAt, generation);
                         }
                     }
-                };
-        }
+                );
+            }
 
-        // Start Bluetooth LE scan.
-        // https://developer.android.com/reference/android/bluetooth/le/BluetoothLeScanner
-        scanner.startScan(filters, settings, scanCallback);
+            @Override
+            // Callback when scan could not be started.
+            public void onScanFailed(int errorCode) {
+                Log.e("ScanCallback", String.format("onScanFailed(errorCode=%d)", errorCode));
 
-        if (ttlSeconds != null) {
-            startTimer(ttlSeconds, callback);
-        }
+                metrics.scanFailures.record(errorCode);
 
-        mScanning = true;
-    }
+                super.onScanFailed(errorCode);
 
-    public void stop() {
-        stopTimer();
+                if (this != scanCallback) {
+                    return;
+                }
 
-        if (scanner != null && scanCallback != null) {
-            if (isBluetoothAvailable()) {
-                scanner.stopScan(scanCallback);
+                Worker.handOff(handler, () -> failed(errorCode));
             }
+        };
+    }
 
-            scanCallback = null;
-        }
+    private synchronized void failed(int errorCode) {
+        Callback callback = sessionCallback;
 
-        mScanning = false;
-    }
+        // The scan is shared, so every subscription ends with it.
+        List<Subscription> failed = new ArrayList<>(subscriptions.values());
+        for (Subscription subscription : failed) {
+            ended(subscription);
+        }
+        subscriptions.clear();
 
-    public boolean isScanning() {
-        return mScanning;
-    }
+        stop();
+        stopScan();
 
-    public boolean isBluetoothAvailable() {
-        return (adapter != null && adapter.isEnabled() && adapter.getState() == BluetoothAdapter.STATE_ON);
-    }
+        if (callback != null) {
+            callback.onFailure(errorCode, scanFailed(errorCode));
+        }
 
-    private String scanFailed(int errorCode) {
-        switch (errorCode) {
-            case android.bluetooth.le.ScanCallback.SCAN_FAILED_ALREADY_STARTED:
-                return "Failed to start scan as BLE scan with the same settings is already started by the app.";
-            case android.bluetooth.le.ScanCallback.SCAN_FAILED_APPLICATION_REGISTRATION_FAILED:
-                return "Failed to start scan as app cannot be registered.";
-            case android.bluetooth.le.ScanCallback.SCAN_FAILED_INTERNAL_ERROR:
-                return "Failed to start scan due an internal error.";
-            case android.bluetooth.le.ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED:
-                return "Failed to start power optimized scan as this feature is not supported.";
-            default:
-                return "Unknown error.";
+        for (Subscription subscription : failed) {
+            subscription.callback.onFailure(subscription, errorCode, scanFailed(errorCode));
         }
     }
 
     /**
-     * Timer
+     * Subscriptions
      */
 
-    public void startTimer(Integer ttlSeconds, Scanner.Callback callback) {
-        if (ttlSeconds != null && callback != null) {
-            runnable = callback::onExpired;
-
-            // Sets the time to live in seconds for the publish or subscribe.
-            // Stops scanning after a pre-defined scan period.
-            handler.postDelayed(runnable, ttlSeconds * 1000);
+    /**
+     * Subscribes to another namespace, on the scan which is already running if any.
+     *
+     * @return the subscription, or null if scanning is not possible
+     */
+    public synchronized Subscription subscribe(
+        UUID serviceUUID,
+        List<BeaconFilter> filters,
+        Integer ttlSeconds,
+        Subscription.Callback callback
+    ) {
+        if (!prepare(null)) {
+            return null;
         }
-    }
 
-    public void stopTimer() {
-        if (runnable != null) {
-            handler.removeCallbacks(runnable);
+        Subscription subscription = new Subscription(nextHandle++, serviceUUID, filters, callback);
 
-            runnable = null;
+        subscription.tracker = new BeaconTracker(serviceUUID, tracker.getTtlMillis(), tickMillis, listener(subscription));
+
+        // Beacons of all namespaces are tracked alike.
+        subscription.tracker.setLostTimeout(tracker.getLostTimeout());
+        subscription.tracker.setProximity(tracker.getProximity());
+        subscription.tracker.setHistory(tracker.getHistoryCapacity(), tracker.getHistoryMaxBytes());
+
+        subscriptions.put(subscription.getHandle(), subscription);
+
+        route();
+
+        if (ttlSeconds != null) {
+            subscription.expiry = () -> expired(subscription);
+
+            handler.postDelayed(subscription.expiry, ttlSeconds * 1000L);
         }
+
+        requestScan();
+
+        return subscription;
     }
 
     /**
-     * Callback
+     * Ends the subscription, and the scan if nothing else is subscribed.
+     *
+     * @return whether the subscription was active
      */
+    public synchronized boolean unsubscribe(int handle) {
+        Subscription subscription = subscriptions.remove(handle);
+        if (subscription == null) {
+            return false;
+        }
 
-    public abstract static class BeaconCallback {
+        ended(subscription);
 
-        public void onFound(UUID uuid, byte[] data) {}
+        route();
 
-        public void onLost(UUID uuid, byte[] data) {}
+        if (isActive()) {
+            // Narrow the scan down to what is still subscribed.
+            requestScan();
+        } else {
+            idle();
+        }
+
+        return true;
     }
 
-    public abstract static class Callback {
+    public synchronized void unsubscribeAll() {
+        for (Subscription subscription : subscriptions.values()) {
+            ended(subscription);
+        }
+        subscriptions.clear();
 
-        public void onFailure(int errorCode, String errorMessage) {}
+        route();
 
-        public void onExpired() {}
+        if (isActive()) {
+            requestScan();
+        } else {
+            idle();
+        }
     }
 
-    /**
-     * Beacon
-     */
+    public synchronized Subscription getSubscription(int handle) {
+        return subscriptions.get(handle);
+    }
 
-    private final Map<UUID, Beacon> beacons = new HashMap<>();
+    public List<Subscription> getSubscriptions() {
+        return Arrays.asList(activeSubscriptions);
+    }
 
-    public Set<UUID> getBeacons() {
-        return beacons.keySet();
+    private void expired(Subscription subscription) {
+        if (unsubscribe(subscription.getHandle())) {
+            subscription.callback.onExpired(subscription);
+        }
     }
 
-    private class Beacon {
+    private void ended(Subscription subscription) {
+        subscription.active = false;
+
+        if (subscription.expiry != null) {
+            handler.removeCallbacks(subscription.expiry);
+        }
+
+        subscription.tracker.clear();
+    }
 
-        UUID uuid;
-        byte[] data;
+    private BeaconTracker.Listener listener(Subscription subscription) {
+        return new BeaconTracker.Listener() {
+            @Override
+            public void onFound(UUID uuid, byte[] data) {
+                if (scheduler != null) {
+                    scheduler.onFound();
+                }
 
-        long timestamp;
+                if (subscription.active) {
+                    subscription.callback.onFound(subscription, uuid, data);
+                }
 
-        Runnable runnable;
+                metrics.found.increment();
+                delivered();
+            }
 
-        long lastSeen;
+            @Override
+            public void onLost(UUID uuid, byte[] data) {
+                if (scheduler != null) {
+                    scheduler.onLost();
+                }
 
-        public Beacon(UUID uuid, byte[] data) {
-            this.uuid = uuid;
-            this.data = data;
+                if (subscription.active) {
+                    subscription.callback.onLost(subscription, uuid, data);
+                }
 
-            this.timestamp = System.currentTimeMillis();
+                metrics.lost.increment();
+            }
 
-            this.runnable =
-                () -> {
-                    // Check if we are still alive.
-                    synchronized (beacons) {
-                        Beacon beacon = beacons.get(this.uuid);
-                        if (beacon != null) {
-                            if (mScanning) {
-                                if (beaconCallback != null) {
-                                    beaconCallback.onLost(this.uuid, this.data);
-                                }
-                            }
-                        }
-                    }
+            @Override
+            public void onUpdated(UUID uuid, byte[] data) {
+                if (scheduler != null) {
+                    scheduler.onUpdated();
+                }
 
-                    this.kill();
-                };
+                if (subscription.active) {
+                    subscription.callback.onUpdated(subscription, uuid, data);
+                }
 
-            synchronized (beacons) {
-                this.lastSeen = System.currentTimeMillis();
+                metrics.updated.increment();
+                delivered();
+            }
 
-                handler.postDelayed(this.runnable, ttlSeconds * 1000);
+            @Override
+            public void onProximity(UUID uuid, double rssi, double distance, int zone) {
+                if (subscription.active) {
+                    subscription.callback.onProximity(subscription, uuid, rssi, distance, zone);
+                }
+            }
 
-                beacons.put(this.uuid, this);
+            @Override
+            public void onActive() {
+                handler.removeCallbacks(sweeper);
+                handler.postDelayed(sweeper, tickMillis);
             }
-        }
+        };
+    }
+
+    // Whether the default subscription or any other is active.
+    private boolean isActive() {
+        return mScanning || activeSubscriptions.length > 0;
+    }
 
-        public Beacon(UUID uuid) {
-            this(uuid, null);
+    // Rebuilds the lookup from service UUIDs to the trackers of the subscriptions they belong to.
+    private void route() {
+        Subscription[] active = subscriptions.values().toArray(new Subscription[0]);
+
+        activeSubscriptions = active;
+
+        if (active.length == 0) {
+            // Everything scanned for is for the default subscription.
+            routes = null;
+            return;
         }
 
-        public UUID uuid() {
-            return this.uuid;
+        BeaconRegistry<BeaconTracker[]> routes = new BeaconRegistry<>();
+
+        if (mScanning) {
+            route(routes, trackedServiceUUID, beaconFilters, tracker);
         }
 
-        public byte[] data() {
-            return this.data;
+        for (Subscription subscription : active) {
+            route(routes, subscription.getServiceUUID(), subscription.getFilters(), subscription.tracker);
         }
 
-        public void kill() {
-            handler.removeCallbacks(this.runnable);
+        this.routes = routes;
+    }
+
+    // Routes the namespace, and the beacons filtered on which may advertise without it.
+    private static void route(BeaconRegistry<BeaconTracker[]> routes, UUID serviceUUID, List<BeaconFilter> filters, BeaconTracker tracker) {
+        route(routes, serviceUUID, tracker);
 
-            // Kill yourself.
-            synchronized (beacons) {
-                beacons.remove(this.uuid);
+        if (filters != null) {
+            for (BeaconFilter filter : filters) {
+                if (filter.getUuid() != null) {
+                    route(routes, filter.getUuid(), tracker);
+                }
             }
         }
+    }
 
-        public void alive() {
-            this.lastSeen = System.currentTimeMillis();
+    private static void route(BeaconRegistry<BeaconTracker[]> routes, UUID uuid, BeaconTracker tracker) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
 
-            handler.removeCallbacks(this.runnable);
+        BeaconTracker[] trackers = routes.remove(mostSigBits, leastSigBits);
+        if (trackers == null) {
+            trackers = new BeaconTracker[] { tracker };
+        } else if (!Arrays.asList(trackers).contains(tracker)) {
+            trackers = Arrays.copyOf(trackers, trackers.length + 1);
+            trackers[trackers.length - 1] = tracker;
+        }
 
-            // Check if we are still alive.
-            synchronized (beacons) {
-                if (beacons.containsKey(this.uuid)) {
-                    handler.postDelayed(this.runnable, ttlSeconds * 1000);
-                }
+        routes.putIfAbsent(mostSigBits, leastSigBits, trackers);
+    }
+
+    /**
+     * Starts the Bluetooth LE scan with the current settings, unless it is still running with the same settings.
+     */
+    private void requestScan() {
+        handler.removeCallbacks(lingerRunnable);
+
+        List<ScanFilter> filters = buildFilters();
+        int mode = scheduler != null ? scheduler.getMode() : scanMode;
+        long reportDelay = reportDelay();
+        boolean background = scansInBackground();
+
+        if (mHardwareScanning) {
+            if (
+                filters.equals(activeFilters) &&
+                mode == activeMode &&
+                reportDelay == activeReportDelay &&
+                background == activeBackground
+            ) {
+                // Stopped moments ago, so carry on instead of using up a start.
+                metrics.scanStartsCoalesced.increment();
+                return;
             }
+
+            stopScan();
         }
+
+        long now = System.currentTimeMillis();
+
+        if (!limiter.canStart(now, 0)) {
+            // Starting now would get the app throttled without any error, so wait for the window to move on.
+            Log.i("Scanner", String.format("Deferring scan start by %d ms.", limiter.nextStartAt(now, 0) - now));
+
+            metrics.scanStartsDeferred.increment();
+
+            handler.removeCallbacks(deferredRunnable);
+            handler.postDelayed(deferredRunnable, limiter.nextStartAt(now, 0) - now);
+            return;
+        }
+
+        retarget();
+
+        startScan(filters, mode, reportDelay, background);
+    }
+
+    private synchronized void startDeferred() {
+        if (isActive() && !mHardwareScanning) {
+            requestScan();
+        }
+    }
+
+    private boolean scansInBackground() {
+        return background && context != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    private long reportDelay() {
+        if (reportDelayMillis <= 0) {
+            return 0;
+        }
+
+        if (!adapter.isOffloadedScanBatchingSupported()) {
+            // Fall back to immediate reporting, results are delivered through onScanResult.
+            Log.i("Scanner", "Offloaded scan batching is not supported, reporting results immediately.");
+            return 0;
+        }
+
+        // Keep the delay well below the liveness timeout, otherwise batched beacons are declared lost.
+        return Math.min(reportDelayMillis, tracker.getLostTimeout().getMinMillis() / 2);
+    }
+
+    private void startScan(List<ScanFilter> filters, int mode, long reportDelay, boolean background) {
+        // https://developer.android.com/reference/android/bluetooth/le/ScanSettings.Builder
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+            // Set scan mode for Bluetooth LE scan.
+            .setScanMode(mode)
+            // Set report delay timestamp for Bluetooth LE scan, results are queued up by the controller.
+            .setReportDelay(reportDelay);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && adapter.isLeExtendedAdvertisingSupported()) {
+            // Also report extended advertisements, on all PHYs the controller supports.
+            builder.setLegacy(false).setPhy(ScanSettings.PHY_LE_ALL_SUPPORTED);
+        }
+
+        ScanSettings settings = builder.build();
+
+        limiter.record(System.currentTimeMillis());
+
+        metrics.scanStarts.increment();
+
+        // Start Bluetooth LE scan.
+        // https://developer.android.com/reference/android/bluetooth/le/BluetoothLeScanner
+        if (background) {
+            if (pendingIntent == null) {
+                pendingIntent = BackgroundScan.pendingIntent(context);
+
+                // Replace a scan left running by a previous process.
+                scanner.stopScan(pendingIntent);
+            }
+
+            int errorCode = scanner.startScan(filters, settings, pendingIntent);
+            if (errorCode != 0) {
+                Log.e("Scanner", String.format("startScan(PendingIntent) failed (errorCode=%d)", errorCode));
+
+                metrics.scanFailures.record(errorCode);
+
+                handler.post(() -> failed(errorCode));
+                return;
+            }
+        } else {
+            scanner.startScan(filters, settings, scanCallback);
+        }
+
+        mHardwareScanning = true;
+
+        activeFilters = filters;
+        activeMode = mode;
+        activeReportDelay = reportDelay;
+        activeBackground = background;
+
+        // Renew the scan before Android downgrades it to opportunistic.
+        handler.removeCallbacks(watchdogRunnable);
+        handler.postDelayed(watchdogRunnable, SESSION_MILLIS);
+    }
+
+    private void stopScan() {
+        handler.removeCallbacks(lingerRunnable);
+        handler.removeCallbacks(watchdogRunnable);
+
+        if (mHardwareScanning && scanner != null && isBluetoothAvailable()) {
+            if (activeBackground) {
+                scanner.stopScan(pendingIntent);
+            } else if (scanCallback != null) {
+                scanner.stopScan(scanCallback);
+            }
+        }
+
+        mHardwareScanning = false;
+
+        activeFilters = null;
+        activeBackground = false;
+    }
+
+    // The union of the filters of all subscriptions.
+    private List<ScanFilter> buildFilters() {
+        List<ScanFilter> filters = new ArrayList<>();
+
+        Subscription[] subscriptions = activeSubscriptions;
+
+        // Every subscription takes a slot per filter, or one for its namespace.
+        int slots = mScanning ? slots(beaconFilters) : 0;
+        for (Subscription subscription : subscriptions) {
+            slots += slots(subscription.getFilters());
+        }
+
+        boolean hardware = slots <= MAX_HARDWARE_FILTERS && adapter.isOffloadedFilteringSupported();
+
+        boolean hardwareFiltering = false;
+
+        if (mScanning) {
+            hardwareFiltering = addFilters(filters, serviceUUID, beaconFilters, tracker, hardware);
+        }
+
+        for (Subscription subscription : subscriptions) {
+            hardwareFiltering |=
+                addFilters(filters, subscription.getServiceUUID(), subscription.getFilters(), subscription.tracker, hardware);
+        }
+
+        mHardwareFiltering = hardwareFiltering;
+
+        return filters;
+    }
+
+    private static int slots(List<BeaconFilter> beaconFilters) {
+        return beaconFilters != null && !beaconFilters.isEmpty() ? beaconFilters.size() : 1;
+    }
+
+    // Adds the scan filters of one subscription, returns whether the controller takes its beacon filters.
+    private boolean addFilters(
+        List<ScanFilter> filters,
+        UUID serviceUUID,
+        List<BeaconFilter> beaconFilters,
+        BeaconTracker tracker,
+        boolean hardware
+    ) {
+        if (beaconFilters != null && !beaconFilters.isEmpty()) {
+            if (hardware) {
+                for (BeaconFilter beaconFilter : beaconFilters) {
+                    addFilter(filters, toScanFilter(serviceUUID, beaconFilter));
+                }
+
+                // The controller only narrows down, the tracker checks every filter again like on the software path.
+                tracker.setFilters(beaconFilters.toArray(new BeaconFilter[0]));
+
+                return true;
+            }
+
+            // Fall back to filtering in software, with the same semantics.
+            Log.i("Scanner", String.format("Filtering %d filters in software.", beaconFilters.size()));
+
+            tracker.setFilters(beaconFilters.toArray(new BeaconFilter[0]));
+        } else {
+            tracker.setFilters(null);
+        }
+
+        addFilter(filters, new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUUID)).build());
+
+        return false;
+    }
+
+    private static void addFilter(List<ScanFilter> filters, ScanFilter filter) {
+        // Subscriptions to the same namespace share their filters.
+        if (!filters.contains(filter)) {
+            filters.add(filter);
+        }
+    }
+
+    private static ScanFilter toScanFilter(UUID serviceUUID, BeaconFilter beaconFilter) {
+        // Payloads are sent in fragments, the first bytes of a message are not in every advertisement.
+        // So the controller cannot match service data, it only matches the beacon or the namespace.
+        UUID uuid = beaconFilter.getUuid() != null ? beaconFilter.getUuid() : serviceUUID;
+
+        return new ScanFilter.Builder().setServiceUuid(new ParcelUuid(uuid)).build();
+    }
+
+    // Restarts the Bluetooth LE scan with the current settings, keeping the beacons and timers.
+    private synchronized void restartScan() {
+        if (!isActive() || !mHardwareScanning || scanner == null || scanCallback == null || !isBluetoothAvailable()) {
+            return;
+        }
+
+        stopScan();
+
+        metrics.scanRestarts.increment();
+
+        requestScan();
+    }
+
+    // Restarts a long running scan, which Android would otherwise only continue as opportunistic scan.
+    private synchronized void renewScan() {
+        if (!isActive() || !mHardwareScanning) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (!limiter.canStart(now, 0)) {
+            handler.postDelayed(watchdogRunnable, limiter.nextStartAt(now, 0) - now);
+            return;
+        }
+
+        Log.i("Scanner", "Renewing the scan session.");
+
+        metrics.scanWatchdogRestarts.increment();
+
+        restartScan();
+    }
+
+    /**
+     * Reconfigure
+     */
+
+    /**
+     * Changes the namespace and the scan mode, of the running scan if any.
+     *
+     * The scan with the new settings is started before the running one is stopped, so beacons keep being seen in the
+     * meantime. The gap is reported to the callback with the first result of the new scan. Beacons found in a previous
+     * namespace are reported as lost.
+     */
+    public synchronized void reconfigure(UUID serviceUUID, Integer scanMode, Callback callback) {
+        if (callback != null) {
+            reconfigureCallback = callback;
+        }
+
+        if (serviceUUID != null) {
+            this.serviceUUID = serviceUUID;
+        }
+
+        if (scanMode != null && !scanMode.equals(this.scanMode)) {
+            this.scanMode = scanMode;
+
+            if (scheduler != null) {
+                // Adapt from the new scan mode on.
+                setAdaptive(true);
+            }
+        }
+
+        if (isActive() && mHardwareScanning) {
+            handOver();
+        } else if (!isActive()) {
+            retarget();
+        }
+    }
+
+    // Starts the Bluetooth LE scan with the current settings, and only then stops the running one.
+    private void handOver() {
+        handler.removeCallbacks(handoverRunnable);
+
+        List<ScanFilter> filters = buildFilters();
+        int mode = scheduler != null ? scheduler.getMode() : scanMode;
+        long reportDelay = reportDelay();
+        boolean background = scansInBackground();
+
+        if (
+            filters.equals(activeFilters) &&
+            mode == activeMode &&
+            reportDelay == activeReportDelay &&
+            background == activeBackground
+        ) {
+            retarget();
+            return;
+        }
+
+        if (background || activeBackground) {
+            // The PendingIntent carries one scan at a time, so it is stopped first.
+            stopScan();
+
+            metrics.scanHandovers.increment();
+
+            requestScan();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (!limiter.canStart(now, 0)) {
+            // The running scan carries on until the start budget allows for another.
+            metrics.scanStartsDeferred.increment();
+
+            handler.postDelayed(handoverRunnable, limiter.nextStartAt(now, 0) - now);
+            return;
+        }
+
+        ScanCallback previous = scanCallback;
+
+        // Results of the running scan are dropped from here on.
+        handoverAt = System.nanoTime();
+        scanCallback = newScanCallback();
+
+        retarget();
+
+        startScan(filters, mode, reportDelay, false);
+
+        if (previous != null && isBluetoothAvailable()) {
+            scanner.stopScan(previous);
+        }
+
+        metrics.scanHandovers.increment();
+    }
+
+    private synchronized void handOverDeferred() {
+        if (isActive() && mHardwareScanning) {
+            handOver();
+        } else if (!isActive()) {
+            retarget();
+        }
+    }
+
+    // Moves the default subscription over to the configured namespace, on the worker thread so results queued up
+    // before are ingested in the namespace they were scanned for.
+    private void retarget() {
+        UUID serviceUUID = this.serviceUUID;
+        if (serviceUUID.equals(trackedServiceUUID)) {
+            return;
+        }
+
+        trackedServiceUUID = serviceUUID;
+
+        Worker.handOff(handler, () -> tracker.setServiceUUID(serviceUUID));
+
+        route();
+
+        if (mScanning && scansInBackground()) {
+            BackgroundScan.started(context, serviceUUID, tracker.getLostTimeout().getInitialMillis(), beaconFilters);
+        }
+    }
+
+    // Records the gap of a handover, from the worker thread.
+    private void handedOver(long gapNanos) {
+        handoverAt = 0;
+
+        metrics.scanHandoverGap.record(gapNanos / 1000);
+
+        Callback callback = reconfigureCallback;
+        if (callback != null) {
+            callback.onReconfigured(gapNanos / 1000000.0);
+        }
+    }
+
+    public synchronized void stop() {
+        stopTimer();
+        stopScheduler();
+
+        handler.removeCallbacks(deferredRunnable);
+
+        sessionCallback = null;
+
+        mScanning = false;
+
+        route();
+
+        if (activeBackground) {
+            BackgroundScan.stopped(context);
+        }
+
+        if (mHardwareScanning) {
+            if (!activeBackground && reportDelayMillis > 0 && scanner != null && isBluetoothAvailable()) {
+                // Deliver results still queued up by the controller.
+                scanner.flushPendingScanResults(scanCallback);
+            }
+
+            if (isActive()) {
+                // Other subscriptions carry on, without the filters of this one.
+                requestScan();
+            } else {
+                idle();
+            }
+        }
+    }
+
+    // Keeps scanning for a moment, in case scanning is started again with the same settings.
+    private void idle() {
+        if (mHardwareScanning) {
+            handler.removeCallbacks(lingerRunnable);
+            handler.postDelayed(lingerRunnable, LINGER_MILLIS);
+        }
+    }
+
+    private synchronized void linger() {
+        if (!isActive()) {
+            stopScan();
+        }
+    }
+
+    public boolean isScanning() {
+        return mScanning;
+    }
+
+    public boolean isBluetoothAvailable() {
+        return (adapter != null && adapter.isEnabled() && adapter.getState() == BluetoothAdapter.STATE_ON);
+    }
+
+    private void process(ScanResult result, long receivedAt, int generation) {
+        metrics.scanResults.increment();
+
+        if (generation != lastGeneration) {
+            // The first result of a scan taking over, the gap runs from the handover or any later result before it.
+            if (handoverAt != 0) {
+                handedOver(Math.max(0, receivedAt - Math.max(lastReceivedAt, handoverAt)));
+            }
+
+            lastGeneration = generation;
+        }
+
+        lastReceivedAt = receivedAt;
+
+        // Represents a scan record from Bluetooth LE scan.
+        ScanRecord record = result.getScanRecord();
+        if (record == null) {
+            return;
+        }
+
+        this.receivedAt = receivedAt;
+
+        BeaconRegistry<BeaconTracker[]> routes = this.routes;
+        if (routes == null) {
+            tracker.ingest(record.getBytes(), result.getRssi(), txPower(result, record), seenAt(result));
+        } else {
+            demultiplex(routes, record.getBytes(), result.getRssi(), txPower(result, record), seenAt(result));
+        }
+
+        this.receivedAt = 0;
+    }
+
+    // Ingests the advertisement into the trackers of the service UUIDs it lists, each tracker once.
+    private void demultiplex(BeaconRegistry<BeaconTracker[]> routes, byte[] bytes, int rssi, int txPower, long seenAt) {
+        int count = parser.parse(bytes);
+
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            BeaconTracker[] trackers = routes.get(parser.mostSigBits(i), parser.leastSigBits(i));
+            if (trackers == null) {
+                continue;
+            }
+
+            for (BeaconTracker tracker : trackers) {
+                if (indexOf(routed, size, tracker) < 0) {
+                    if (size == routed.length) {
+                        routed = Arrays.copyOf(routed, size << 1);
+                    }
+
+                    routed[size++] = tracker;
+                }
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            routed[i].ingest(bytes, rssi, txPower, seenAt);
+            routed[i] = null;
+        }
+    }
+
+    private static int indexOf(Object[] array, int size, Object element) {
+        for (int i = 0; i < size; i++) {
+            if (array[i] == element) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Ingests results delivered to the {@link ScanReceiver} of a background scan, and saves the found beacons.
+     */
+    public void ingest(List<ScanResult> results) {
+        long receivedAt = System.nanoTime();
+
+        Worker.handOff(
+            handler,
+            () -> {
+                for (ScanResult result : results) {
+                    process(result, receivedAt, lastGeneration);
+                }
+
+                if (mScanning) {
+                    BackgroundScan.save(context, tracker.save());
+                }
+            }
+        );
+    }
+
+    private void restore() {
+        byte[] state = BackgroundScan.load(context, serviceUUID);
+        if (state == null || !mScanning) {
+            return;
+        }
+
+        int restored = tracker.restore(state, System.currentTimeMillis(), true);
+        if (restored < 0) {
+            Log.w("Scanner", "Dropping background scan state which could not be read.");
+        } else {
+            Log.i("Scanner", String.format("Restored %d beacons found in the background.", restored));
+        }
+    }
+
+    // Batched results may have been queued for a while, so use the time the advertisement was received.
+    static long seenAt(ScanResult result) {
+        return System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - result.getTimestampNanos()) / 1000000;
+    }
+
+    // Records the latency of an event caused by the scan result being ingested.
+    private void delivered() {
+        if (receivedAt != 0) {
+            metrics.deliveryLatency.record((System.nanoTime() - receivedAt) / 1000);
+        }
+    }
+
+    static int txPower(ScanResult result, ScanRecord record) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && result.getTxPower() != ScanResult.TX_POWER_NOT_PRESENT) {
+            return result.getTxPower();
+        }
+
+        // Also Integer.MIN_VALUE if the advertisement does not include it.
+        return record.getTxPowerLevel();
+    }
+
+    private String scanFailed(int errorCode) {
+        switch (errorCode) {
+            case android.bluetooth.le.ScanCallback.SCAN_FAILED_ALREADY_STARTED:
+                return "Failed to start scan as BLE scan with the same settings is already started by the app.";
+            case android.bluetooth.le.ScanCallback.SCAN_FAILED_APPLICATION_REGISTRATION_FAILED:
+                return "Failed to start scan as app cannot be registered.";
+            case android.bluetooth.le.ScanCallback.SCAN_FAILED_INTERNAL_ERROR:
+                return "Failed to start scan due an internal error.";
+            case android.bluetooth.le.ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED:
+                return "Failed to start power optimized scan as this feature is not supported.";
+            default:
+                return "Unknown error.";
+        }
+    }
+
+    /**
+     * Bluetooth
+     */
+
+    /**
+     * Stops scanning while Bluetooth is off, keeping the subscriptions and the beacons found.
+     *
+     * Beacons cannot be seen meanwhile, so their timeouts are frozen until scanning is resumed.
+     */
+    public synchronized void pause() {
+        if (pausedAt != 0) {
+            return;
+        }
+
+        pausedAt = System.currentTimeMillis();
+
+        handler.removeCallbacks(deferredRunnable);
+        handler.removeCallbacks(handoverRunnable);
+        handler.removeCallbacks(sweeper);
+
+        // Bluetooth stops the scan itself, and its callback is not registered anymore.
+        stopScan();
+
+        scanCallback = null;
+    }
+
+    /**
+     * Starts scanning again after Bluetooth is back on, with the beacons found before.
+     *
+     * @return whether scanning has been re-armed, false if Bluetooth is not ready yet
+     */
+    public synchronized boolean resume() {
+        if (pausedAt == 0) {
+            return true;
+        }
+
+        if (!isBluetoothAvailable() || adapter.getBluetoothLeScanner() == null) {
+            return false;
+        }
+
+        long pausedMillis = System.currentTimeMillis() - pausedAt;
+
+        pausedAt = 0;
+
+        // Ahead of the first results of the new scan.
+        Worker.handOff(handler, () -> thaw(pausedMillis));
+
+        if (isActive()) {
+            scanner = adapter.getBluetoothLeScanner();
+
+            if (scanCallback == null) {
+                scanCallback = newScanCallback();
+            }
+
+            requestScan();
+        }
+
+        return true;
+    }
+
+    public boolean isPaused() {
+        return pausedAt != 0;
+    }
+
+    private void thaw(long pausedMillis) {
+        tracker.shift(pausedMillis);
+        for (Subscription subscription : activeSubscriptions) {
+            subscription.tracker.shift(pausedMillis);
+        }
+
+        handler.removeCallbacks(sweeper);
+        handler.postDelayed(sweeper, tickMillis);
+    }
+
+    /**
+     * Timer
+     */
+
+    public void startTimer(Integer ttlSeconds, Scanner.Callback callback) {
+        if (ttlSeconds != null && callback != null) {
+            runnable = callback::onExpired;
+
+            // Sets the time to live in seconds for the publish or subscribe.
+            // Stops scanning after a pre-defined scan period.
+            handler.postDelayed(runnable, ttlSeconds * 1000);
+        }
+    }
+
+    public void stopTimer() {
+        if (runnable != null) {
+            handler.removeCallbacks(runnable);
+
+            runnable = null;
+        }
+    }
+
+    /**
+     * Scheduler
+     */
+
+    private void startScheduler(Callback callback) {
+        scheduleCallback = callback;
+
+        handler.removeCallbacks(scheduleRunnable);
+        handler.postDelayed(scheduleRunnable, scheduler.getWindowMillis());
+    }
+
+    private void stopScheduler() {
+        handler.removeCallbacks(scheduleRunnable);
+    }
+
+    private void schedule() {
+        ScanScheduler scheduler = this.scheduler;
+        if (scheduler == null || !mScanning) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (scheduler.evaluate(now)) {
+            Log.i("Scanner", String.format("scanMode=%d (%s)", scheduler.getMode(), scheduler.getReason()));
+
+            restartScan();
+
+            if (scheduleCallback != null) {
+                scheduleCallback.onScanModeChanged(scheduler.getMode(), scheduler.getReason());
+            }
+        }
+
+        handler.postDelayed(scheduleRunnable, scheduler.nextEvaluationAt(now) - now);
+    }
+
+    /**
+     * Sweeper
+     */
+
+    private void sweep() {
+        if (pausedAt != 0) {
+            // Picked up again when resumed.
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        boolean active = tracker.sweep(now);
+        for (Subscription subscription : activeSubscriptions) {
+            active |= subscription.tracker.sweep(now);
+        }
+
+        if (active) {
+            handler.postDelayed(sweeper, tickMillis);
+        }
+    }
+
+    /**
+     * Callback
+     */
+
+    public abstract static class BeaconCallback {
+
+        public void onFound(UUID uuid, byte[] data) {}
+
+        public void onLost(UUID uuid, byte[] data) {}
+
+        public void onUpdated(UUID uuid, byte[] data) {}
+
+        public void onProximity(UUID uuid, double rssi, double distance, int zone) {}
+    }
+
+    public abstract static class Callback {
+
+        public void onFailure(int errorCode, String errorMessage) {}
+
+        public void onExpired() {}
+
+        public void onScanModeChanged(int scanMode, String reason) {}
+
+        public void onReconfigured(double gapMillis) {}
+    }
+
+    /**
+     * Beacon
+     */
+
+    public long getVersion() {
+        return tracker.getVersion();
+    }
+
+    public ChangeLog.Delta getChangesSince(long version) {
+        return tracker.getChangesSince(version);
+    }
+
+    public Set<UUID> getBeacons() {
+        return tracker.getBeacons();
+    }
+
+    public MessageTransport.Stats getTransportStats() {
+        return tracker.getTransportStats();
+    }
+
+    // Keeps the given number of sightings per beacon, within the given number of bytes for all beacons.
+    public void setHistory(Integer capacity, Long maxBytes) {
+        tracker.setHistory(
+            capacity != null ? capacity : tracker.getHistoryCapacity(),
+            maxBytes != null ? maxBytes : tracker.getHistoryMaxBytes()
+        );
+    }
+
+    public SightingHistory.Sightings getHistory(UUID uuid, long sinceMillis) {
+        return tracker.history(uuid, sinceMillis);
+    }
+
+    // Beacons being tracked for all subscriptions, including those of which no message is complete yet.
+    public int getTrackedCount() {
+        int count = tracker.size();
+        for (Subscription subscription : activeSubscriptions) {
+            count += subscription.tracker.size();
+        }
+
+        return count;
     }
 }
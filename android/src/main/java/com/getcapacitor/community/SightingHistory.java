@@ -0,0 +1,111 @@
+package com.getcapacitor.community;
+
+/**
+ * The most recent sightings of a beacon, in a ring buffer of primitive arrays.
+ *
+ * Sightings are recorded from the thread advertisements are ingested on and may be read from any thread, the lock is
+ * only contended while a query copies the samples out.
+ */
+public class SightingHistory {
+
+    // Stored in place of an RSSI which was not reported.
+    public static final byte NO_RSSI = Byte.MIN_VALUE;
+
+    // Timestamp, fingerprint and RSSI.
+    public static final int BYTES_PER_SIGHTING = 8 + 8 + 1;
+
+    private final long[] timestamps;
+    private final long[] fingerprints;
+    private final byte[] rssi;
+
+    // Index of the next sighting to write, and the number of sightings held.
+    private int head;
+    private int size;
+
+    public SightingHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.timestamps = new long[capacity];
+        this.fingerprints = new long[capacity];
+        this.rssi = new byte[capacity];
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public static long bytes(int capacity) {
+        return (long) capacity * BYTES_PER_SIGHTING;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void record(long timestamp, int rssi, long fingerprint) {
+        timestamps[head] = timestamp;
+        fingerprints[head] = fingerprint;
+        this.rssi[head] = rssi != ProximityEstimator.UNKNOWN ? (byte) Math.max(-127, Math.min(127, rssi)) : NO_RSSI;
+
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Returns the sightings since the given time, in the order they were recorded.
+     */
+    public synchronized Sightings since(long sinceMillis) {
+        int capacity = timestamps.length;
+        int oldest = (head - size + capacity) % capacity;
+
+        // Batched results may arrive slightly out of order, so every sighting is compared.
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (timestamps[(oldest + i) % capacity] >= sinceMillis) {
+                count++;
+            }
+        }
+
+        Sightings sightings = new Sightings(count);
+
+        int j = 0;
+        for (int i = 0; i < size && j < count; i++) {
+            int index = (oldest + i) % capacity;
+            if (timestamps[index] < sinceMillis) {
+                continue;
+            }
+
+            sightings.timestamps[j] = timestamps[index];
+            sightings.fingerprints[j] = fingerprints[index];
+            sightings.rssi[j] = rssi[index];
+            j++;
+        }
+
+        return sightings;
+    }
+
+    /**
+     * Sightings
+     */
+
+    public static class Sightings {
+
+        public final int count;
+
+        public final long[] timestamps;
+        public final long[] fingerprints;
+        public final byte[] rssi;
+
+        Sightings(int count) {
+            this.count = count;
+
+            this.timestamps = new long[count];
+            this.fingerprints = new long[count];
+            this.rssi = new byte[count];
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.getcapacitor.community;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A subscription to a namespace of its own, sharing the Bluetooth LE scan with the others.
+ *
+ * Each subscription tracks its beacons separately, with its own filters and time to live. Events name the
+ * subscription they belong to, so one callback can route them for all subscriptions.
+ */
+public class Subscription {
+
+    private final int handle;
+
+    private final UUID serviceUUID;
+    private final List<BeaconFilter> filters;
+
+    final Callback callback;
+
+    // Set by the scanner before the subscription is routed any results.
+    BeaconTracker tracker;
+
+    // Ends the subscription when its time to live is up.
+    Runnable expiry;
+
+    // Cleared when unsubscribed, events still on their way are dropped.
+    volatile boolean active = true;
+
+    Subscription(int handle, UUID serviceUUID, List<BeaconFilter> filters, Callback callback) {
+        this.handle = handle;
+
+        this.serviceUUID = serviceUUID;
+        this.filters = filters;
+
+        this.callback = callback;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public UUID getServiceUUID() {
+        return serviceUUID;
+    }
+
+    public List<BeaconFilter> getFilters() {
+        return filters;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public BeaconTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Callback
+     */
+
+    public abstract static class Callback {
+
+        public void onFound(Subscription subscription, UUID uuid, byte[] data) {}
+
+        public void onLost(Subscription subscription, UUID uuid, byte[] data) {}
+
+        public void onUpdated(Subscription subscription, UUID uuid, byte[] data) {}
+
+        public void onProximity(Subscription subscription, UUID uuid, double rssi, double distance, int zone) {}
+
+        public void onExpired(Subscription subscription) {}
+
+        public void onFailure(Subscription subscription, int errorCode, String errorMessage) {}
+    }
+}
@@ -0,0 +1,66 @@
+package com.getcapacitor.community;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The thread which owns scanning, advertising and the beacon bookkeeping.
+ *
+ * Timers run here instead of on the main looper, and framework callbacks delivered on the main looper are handed off
+ * right away, so only notifying the listeners leaves this thread. Like the scanner and the publisher, it lives as long
+ * as the process.
+ */
+final class Worker {
+
+    private static HandlerThread thread;
+
+    // Messages the plugin has handled on the main looper, which are only hand-offs to this thread.
+    private static final AtomicLong mainThreadMessages = new AtomicLong();
+    private static final AtomicLong messages = new AtomicLong();
+
+    private Worker() {}
+
+    public static synchronized Looper getLooper() {
+        if (thread == null) {
+            thread = new HandlerThread("Nearby", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+        }
+
+        return thread.getLooper();
+    }
+
+    public static Handler newHandler() {
+        return new Handler(getLooper());
+    }
+
+    /**
+     * Runs the task on the thread of the handler, right away if already on it.
+     */
+    public static void handOff(Handler handler, Runnable task) {
+        Looper looper = Looper.myLooper();
+
+        if (looper == handler.getLooper()) {
+            task.run();
+            return;
+        }
+
+        if (looper != null && looper == Looper.getMainLooper()) {
+            mainThreadMessages.incrementAndGet();
+        }
+
+        messages.incrementAndGet();
+
+        handler.post(task);
+    }
+
+    public static long getMainThreadMessages() {
+        return mainThreadMessages.get();
+    }
+
+    public static long getMessages() {
+        return messages.get();
+    }
+}
@@ -0,0 +1,165 @@
+package com.getcapacitor.community;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+
+public class ChangeLogTest {
+
+    private static final UUID SERVICE_UUID = UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+
+    private static final UUID A = UUID.fromString("12345678-1234-5678-1234-567812345678");
+    private static final UUID B = UUID.fromString("22345678-1234-5678-1234-567812345678");
+
+    @Test
+    public void addedThenRemoved_isAbsent() throws Exception {
+        ChangeLog log = new ChangeLog(16);
+        long version = log.getVersion();
+
+        log.record(A, ChangeLog.ADDED);
+        log.record(A, ChangeLog.REMOVED);
+
+        ChangeLog.Delta delta = log.since(version);
+
+        assertNotNull(delta);
+        assertEquals(version + 2, delta.version);
+        assertTrue(delta.added.isEmpty());
+        assertTrue(delta.removed.isEmpty());
+        assertTrue(delta.changed.isEmpty());
+    }
+
+    @Test
+    public void removedThenAdded_isChanged() throws Exception {
+        ChangeLog log = new ChangeLog(16);
+        log.record(A, ChangeLog.ADDED);
+        long version = log.getVersion();
+
+        log.record(A, ChangeLog.REMOVED);
+        log.record(A, ChangeLog.ADDED);
+
+        ChangeLog.Delta delta = log.since(version);
+
+        assertNotNull(delta);
+        assertTrue(delta.added.isEmpty());
+        assertTrue(delta.removed.isEmpty());
+        assertEquals(Collections.singletonList(A), delta.changed);
+    }
+
+    @Test
+    public void netChanges_areListedOncePerBeacon() throws Exception {
+        ChangeLog log = new ChangeLog(16);
+        log.record(A, ChangeLog.ADDED);
+        long version = log.getVersion();
+
+        log.record(A, ChangeLog.CHANGED);
+        log.record(B, ChangeLog.ADDED);
+        log.record(A, ChangeLog.REMOVED);
+        log.record(B, ChangeLog.CHANGED);
+
+        ChangeLog.Delta delta = log.since(version);
+
+        assertNotNull(delta);
+        assertEquals(Collections.singletonList(B), delta.added);
+        assertEquals(Collections.singletonList(A), delta.removed);
+        assertTrue(delta.changed.isEmpty());
+    }
+
+    @Test
+    public void versionOlderThanTheRing_fallsBackToFullListing() throws Exception {
+        ChangeLog log = new ChangeLog(2);
+        long version = log.getVersion();
+
+        log.record(A, ChangeLog.ADDED);
+        log.record(B, ChangeLog.ADDED);
+
+        // Still held.
+        assertNotNull(log.since(version));
+
+        log.record(A, ChangeLog.CHANGED);
+
+        assertNull(log.since(version));
+        assertEquals(Arrays.asList(B, A), deltaSince(log, version + 1));
+    }
+
+    @Test
+    public void versionFromTheFuture_fallsBackToFullListing() throws Exception {
+        ChangeLog log = new ChangeLog(16);
+        log.record(A, ChangeLog.ADDED);
+
+        assertNull(log.since(log.getVersion() + 1));
+    }
+
+    @Test
+    public void truncate_fallsBackToFullListing() throws Exception {
+        ChangeLog log = new ChangeLog(16);
+        log.record(A, ChangeLog.ADDED);
+        long version = log.getVersion();
+
+        log.truncate();
+
+        assertNull(log.since(version));
+
+        // Changes from then on are listed again.
+        long truncated = log.getVersion();
+        log.record(B, ChangeLog.ADDED);
+
+        assertEquals(Collections.singletonList(B), deltaSince(log, truncated));
+    }
+
+    @Test
+    public void clearedTracker_fallsBackToFullListing() throws Exception {
+        BeaconTracker tracker = new BeaconTracker(SERVICE_UUID, 10000, 1000, null);
+
+        long version = tracker.getVersion();
+
+        tracker.ingest(advertisement(A), 1000);
+
+        ChangeLog.Delta delta = tracker.getChangesSince(version);
+        assertNotNull(delta);
+        assertEquals(Collections.singletonList(A), delta.added);
+
+        tracker.clear();
+
+        assertNull(tracker.getChangesSince(version));
+        assertTrue(tracker.getBeacons().isEmpty());
+    }
+
+    // Added and changed beacons since the version, in the order they were first recorded.
+    private static List<UUID> deltaSince(ChangeLog log, long version) {
+        ChangeLog.Delta delta = log.since(version);
+        assertNotNull(delta);
+
+        List<UUID> uuids = new ArrayList<>(delta.added);
+        uuids.addAll(delta.changed);
+        return uuids;
+    }
+
+    // The namespace as a 16-bit service UUID, and the beacon UUID as a 128-bit one.
+    private static byte[] advertisement(UUID uuid) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        bytes.write(3);
+        bytes.write(0x03);
+        bytes.write(0xaa);
+        bytes.write(0xfe);
+
+        bytes.write(17);
+        bytes.write(0x07);
+        writeLong(bytes, uuid.getLeastSignificantBits());
+        writeLong(bytes, uuid.getMostSignificantBits());
+
+        return bytes.toByteArray();
+    }
+
+    private static void writeLong(ByteArrayOutputStream bytes, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes.write((int) (value >>> (8 * i)));
+        }
+    }
+}
@@ -14,8 +14,237 @@ export enum TTLSeconds {
 
 export type Status = {
   isPublishing: boolean;
+  // Whether the publications use extended advertising.
+  isExtendedAdvertising?: boolean;
+  // The published tokens and the advertisers they share.
+  publications?: Publication[];
+  advertisers?: number;
   isSubscribing: boolean;
   uuids: UUID[];
+  // Version of the found tokens, to ask for the changes since with statusSince.
+  version?: number;
+  // Subscriptions to namespaces of their own.
+  subscriptions?: SubscriptionStatus[];
+  // The current scan mode and the reason for the last switch, if the scan mode is adaptive.
+  scanMode?: ScanMode;
+  scanModeReason?: string;
+  // Time to receive a complete message, by number of fragments.
+  transport?: TransportStats[];
+  // Callbacks handled on the main thread, which only hand off to the plugin's own thread.
+  mainThreadMessages?: number;
+  // Callbacks handed off to the plugin's own thread, from any thread.
+  workerMessages?: number;
+};
+
+export type StatusDelta = {
+  isSubscribing: boolean;
+  // Version of the found tokens, to pass to the next call.
+  version: number;
+  // Whether all found tokens are listed in uuids, instead of the changes.
+  full: boolean;
+  uuids?: UUID[];
+  added?: UUID[];
+  removed?: UUID[];
+  // Found tokens whose content changed.
+  changed?: UUID[];
+};
+
+export type TransportStats = {
+  fragments: number;
+  messages: number;
+  averageMillis: number;
+  maxMillis: number;
+};
+
+export type Sighting = {
+  // Time the advertisement was received, in milliseconds since the epoch.
+  timestamp: number;
+  // Signal strength in dBm, if reported.
+  rssi?: number;
+  // Fingerprint of the content at the time, changes whenever the content changes.
+  fingerprint: string;
+};
+
+export type History = {
+  uuid: UUID;
+  // Oldest first, empty if the message is not found or has no history.
+  sightings: Sighting[];
+};
+
+export type ErrorCount = {
+  errorCode: number;
+  count: number;
+};
+
+export type CacheStats = {
+  hits: number;
+  misses: number;
+  evictions?: number;
+  size?: number;
+};
+
+export type Metrics = {
+  uptimeMillis: number;
+  // Time since the previous metrics, which the rates are averaged over.
+  intervalMillis: number;
+  // Beacons being tracked, including those of which no message is complete yet.
+  beacons: number;
+  scan: {
+    results: number;
+    // Scan results per second.
+    resultRate: number;
+    starts: number;
+    // Includes scan mode switches and renewed sessions.
+    restarts: number;
+    // Starts saved because scanning was started again shortly after a stop, with the same settings.
+    coalescedStarts: number;
+    // Starts delayed to stay within 5 starts per 30 seconds, beyond which Android silently throttles scans.
+    deferredStarts: number;
+    // Sessions renewed before Android downgrades scans running for 30 minutes.
+    watchdogRestarts: number;
+    failures: ErrorCount[];
+    // Scans reconfigured while running, and the time without results until the new scan delivered.
+    handovers: number;
+    handoverGapP50Millis: number;
+    handoverGapP99Millis: number;
+  };
+  events: {
+    found: number;
+    lost: number;
+    updated: number;
+    // Events per second.
+    foundRate: number;
+    lostRate: number;
+    updatedRate: number;
+    // From receiving a scan result to handing its event to the bridge.
+    latencyP50Millis: number;
+    latencyP99Millis: number;
+  };
+  advertise: {
+    starts: number;
+    failures: ErrorCount[];
+    // From starting an advertisement to the controller confirming it.
+    latencyP50Millis: number;
+    latencyP99Millis: number;
+    // Bytes of the fragments built from published content.
+    encodedBytes: number;
+    // Advertisements reconfigured or updated while on air, and the time nothing was advertised meanwhile.
+    handovers: number;
+    handoverGapP50Millis: number;
+    handoverGapP99Millis: number;
+  };
+  // Batches delivered by background scans, kept across restarts of the app.
+  background: {
+    deliveries: number;
+    results: number;
+    // Results which did not wake up the app on their own.
+    wakeupsSaved: number;
+  };
+  // Scanning and publishing are paused while Bluetooth is off, and re-armed when it is back on.
+  bluetooth: {
+    // Only counted while scanning, subscribed or publishing.
+    outages: number;
+    recoveries: number;
+    // Re-arming attempts made before Bluetooth was ready.
+    retries: number;
+    // From Bluetooth being back on to scanning and publishing again.
+    recoveryP50Millis: number;
+    recoveryP99Millis: number;
+  };
+  transport: TransportStats[];
+  caches: {
+    publication: CacheStats;
+    event: CacheStats;
+    content: CacheStats;
+  };
+  mainThreadMessages: number;
+  workerMessages: number;
+};
+
+export type Publication = {
+  uuid: UUID;
+  weight: number;
+  // Number of advertisements the content is split into.
+  fragments: number;
+  // Share of time the token has been on air, from 0 to 1.
+  dutyCycle: number;
+  // Advertisements per second carrying the token, and complete messages per second.
+  rate: number;
+  messageRate: number;
+};
+
+export type PublishExpired = {
+  uuid: UUID;
+};
+
+export type Subscription = {
+  // Identifies a subscription to a namespace of its own, set on its events.
+  handle?: number;
+};
+
+export type SubscriptionStatus = {
+  handle: number;
+  serviceUUID: UUID;
+  uuids: UUID[];
+};
+
+export type SubscribeExpired = {
+  handle: number;
+};
+
+export type SubscribeFailed = {
+  handle: number;
+  errorCode: number;
+  message: string;
+};
+
+export type ProximityZone = 'immediate' | 'near' | 'far';
+
+export type Proximity = {
+  uuid: UUID;
+  // Smoothed signal strength in dBm.
+  rssi: number;
+  // Estimated distance in meters, only a rough indication.
+  distance: number;
+  zone: ProximityZone;
+  // The subscription the message was found for, if it has a namespace of its own.
+  handle?: number;
+};
+
+export type ScanModeChange = {
+  scanMode: ScanMode;
+  reason: string;
+};
+
+export type Reconfigured = {
+  target: 'scan' | 'advertise';
+  // The published token handed over, if the target is an advertisement.
+  uuid?: UUID;
+  // The time in milliseconds without results of the scan, or without the token on air.
+  gapMillis: number;
+};
+
+export type BatchCounts = {
+  found: number;
+  lost: number;
+  updated: number;
+  total: number;
+};
+
+export type Batch = {
+  // The sequence number of this frame.
+  frame: number;
+  found: BeaconEvent[];
+  lost: BeaconEvent[];
+  updated: BeaconEvent[];
+  counts: BatchCounts;
+  // The time in milliseconds between the first event of the frame and its delivery.
+  elapsedMillis: number;
+};
+
+export type BeaconEvent = {
+  uuid: UUID;
+  content?: string;
 };
 
 export enum ScanMode {
@@ -50,6 +279,15 @@ export enum TxPowerLevel {
   HIGH = 3,
 }
 
+export enum Phy {
+  // Bluetooth LE 1M PHY, supported by all devices.
+  LE_1M = 1,
+  // Bluetooth LE 2M PHY, twice the data rate.
+  LE_2M = 2,
+  // Bluetooth LE Coded PHY, for long range.
+  LE_CODED = 3,
+}
+
 // A message that will be shared with nearby devices.
 export interface Message {
   /**
@@ -86,6 +324,19 @@ export interface InitializeOptions {
    */
   scanMode?: ScanMode;
 
+  /**
+   * Lets the scan mode follow the discovery rate, starting from `scanMode`.
+   * Scanning ramps up to low latency when new tokens appear and backs off while nothing changes.
+   * Mode switches stay within the scan start limit of Android.
+   *
+   * Default:
+   * The scan mode is fixed.
+   *
+   * @since 2.1.0
+   * @default false
+   */
+  adaptiveScan?: boolean;
+
   /**
    * Sets the advertise mode.
    *
@@ -106,6 +357,189 @@ export interface InitializeOptions {
    * @default TxPowerLevel.HIGH
    */
   txPowerLevel?: TxPowerLevel;
+
+  /**
+   * Uses Bluetooth 5 extended advertising where the device supports it, which carries up to about 250 bytes of content in one advertisement.
+   * Falls back to legacy advertising otherwise.
+   *
+   * @since 2.1.0
+   * @default false
+   */
+  extendedAdvertising?: boolean;
+  /**
+   * The PHY extended advertisements are announced on, either `Phy.LE_1M` or `Phy.LE_CODED`.
+   * Falls back to `Phy.LE_1M` if not supported.
+   *
+   * @since 2.1.0
+   * @default Phy.LE_1M
+   */
+  primaryPhy?: Phy;
+  /**
+   * The PHY the content of extended advertisements is sent on.
+   * Falls back to `Phy.LE_1M` if not supported.
+   *
+   * @since 2.1.0
+   * @default Phy.LE_1M
+   */
+  secondaryPhy?: Phy;
+  /**
+   * The interval of extended advertisements in milliseconds.
+   *
+   * Default:
+   * Derived from `advertiseMode`.
+   *
+   * @since 2.1.0
+   */
+  advertiseIntervalMillis?: number;
+
+  /**
+   * The number of tokens advertised at the same time, if the device supports multiple advertisements.
+   * More tokens share the advertisers in time slices.
+   *
+   * @since 2.1.0
+   * @default 4
+   */
+  maxAdvertisers?: number;
+  /**
+   * How long a token stays on air before its advertiser goes to the next token, if advertisers are shared.
+   * A slice lasts at least as long as it takes to send all fragments of a token.
+   *
+   * @since 2.1.0
+   * @default 2000
+   */
+  advertiseSliceMillis?: number;
+
+  /**
+   * Enables `onProximity` events, at most one per beacon in this many milliseconds.
+   * An event is only sent if the zone or the distance has changed noticeably.
+   *
+   * Default:
+   * Distances are not estimated.
+   *
+   * @since 2.1.0
+   */
+  proximityIntervalMillis?: number;
+
+  /**
+   * Lets the time after which a message is lost follow the interval it is seen at,
+   * `lostTimeoutMultiplier` times the smoothed interval within `minLostTimeoutMillis` and `maxLostTimeoutMillis`.
+   * The interval grows quickly and shrinks slowly, so a single missed advertisement does not lose a message.
+   *
+   * @since 2.1.0
+   * @default true
+   */
+  adaptiveLostTimeout?: boolean;
+  /**
+   * The time after which a message is lost until its interval is known, or always if `adaptiveLostTimeout` is disabled.
+   *
+   * @since 2.1.0
+   * @default 10000
+   */
+  lostTimeoutMillis?: number;
+  /**
+   * @since 2.1.0
+   * @default 3
+   */
+  lostTimeoutMultiplier?: number;
+  /**
+   * @since 2.1.0
+   * @default 3000
+   */
+  minLostTimeoutMillis?: number;
+  /**
+   * @since 2.1.0
+   * @default 30000
+   */
+  maxLostTimeoutMillis?: number;
+
+  /**
+   * The number of recent sightings kept per found message, for `history`.
+   *
+   * @since 2.1.0
+   * @default 32
+   */
+  historySize?: number;
+  /**
+   * The memory all histories may take up together, in bytes. A sighting takes 17 bytes.
+   * Messages beyond the ceiling have no history until others are lost.
+   *
+   * @since 2.1.0
+   * @default 262144
+   */
+  historyMaxBytes?: number;
+
+  /**
+   * Delivers `onMetrics` every this many milliseconds.
+   *
+   * Default:
+   * Metrics are only returned by `getMetrics`.
+   *
+   * @since 2.1.0
+   */
+  metricsIntervalMillis?: number;
+  /**
+   * The signal strength at 1 m in dBm, used for beacons which do not advertise their transmit power.
+   *
+   * @since 2.1.0
+   * @default -59
+   */
+  measuredPower?: number;
+  /**
+   * How fast the signal weakens with distance, 2 in free space and up to 4 indoors.
+   *
+   * @since 2.1.0
+   * @default 2
+   */
+  pathLossExponent?: number;
+
+  /**
+   * Enables batching of found, lost and updated events into frames delivered as `onBatch`.
+   * A frame is delivered at most this many milliseconds after its first event.
+   *
+   * Default:
+   * Batching is disabled and every event is delivered on its own.
+   *
+   * @since 2.1.0
+   */
+  batchInterval?: number;
+  /**
+   * Delivers a frame as soon as it holds this many events.
+   * Only used if `batchInterval` is set.
+   *
+   * Default:
+   * Frames are only delivered by interval.
+   *
+   * @since 2.1.0
+   */
+  batchSize?: number;
+}
+
+export interface ReconfigureOptions {
+  /**
+   * Moves scanning and publishing to this namespace.
+   * Tokens found in the previous namespace are reported as lost.
+   *
+   * @since 2.1.0
+   */
+  serviceUUID?: UUID;
+  /**
+   * Sets the scan mode.
+   *
+   * @since 2.1.0
+   */
+  scanMode?: ScanMode;
+  /**
+   * Sets the advertise mode.
+   *
+   * @since 2.1.0
+   */
+  advertiseMode?: AdvertiseMode;
+  /**
+   * Sets the TX power level for advertising.
+   *
+   * @since 2.1.0
+   */
+  txPowerLevel?: TxPowerLevel;
 }
 
 export interface PublishOptions {
@@ -115,6 +549,48 @@ export interface PublishOptions {
    * @since 1.0.0
    */
   ttlSeconds?: TTLSeconds;
+
+  /**
+   * Content which does not fit into one advertisement is sent in fragments,
+   * each of them is advertised for this many milliseconds in turn.
+   *
+   * @since 2.1.0
+   * @default 1000
+   */
+  fragmentIntervalMillis?: number;
+
+  /**
+   * The share of advertising time this token gets relative to the others, if advertisers are shared.
+   *
+   * @since 2.1.0
+   * @default 1
+   */
+  weight?: number;
+}
+
+// A filter a nearby token needs to match to be reported.
+export interface Filter {
+  /**
+   * The UUID of the token.
+   * Matches any token if not set.
+   *
+   * @since 2.1.0
+   */
+  uuid?: UUID;
+  /**
+   * The prefix the service data of the token needs to start with, as Base64.
+   * Matches any service data if not set.
+   *
+   * @since 2.1.0
+   */
+  serviceData?: string;
+  /**
+   * The bits of `serviceData` which need to match, as Base64 of the same length.
+   * All bits need to match if not set.
+   *
+   * @since 2.1.0
+   */
+  serviceDataMask?: string;
 }
 
 export interface SubscribeOptions {
@@ -124,6 +600,51 @@ export interface SubscribeOptions {
    * @since 1.0.0
    */
   ttlSeconds?: TTLSeconds;
+
+  /**
+   * Subscribes to this namespace instead of the one initialized with, next to any other subscription.
+   * All subscriptions share one scan. Each is reported its own tokens, tagged with the handle it resolves with.
+   *
+   * @since 2.1.0
+   */
+  serviceUUID?: UUID;
+
+  /**
+   * Lets the Bluetooth controller queue scan results and deliver them in batches after this delay.
+   * Ignored if the controller does not support offloaded batching.
+   *
+   * Default:
+   * Scan results are reported immediately.
+   *
+   * @since 2.1.0
+   * @default 0
+   */
+  reportDelayMillis?: number;
+
+  /**
+   * Keeps scanning while the app is not running, the system delivers the results in batches.
+   * Tokens found meanwhile are reported when subscribing again.
+   * Needs Android 8.0 or later, scans in the foreground otherwise.
+   *
+   * @since 2.1.0
+   * @default false
+   */
+  background?: boolean;
+
+  /**
+   * Only reports tokens matching any of the filters.
+   * Filters are handed to the Bluetooth controller if it supports enough of them, otherwise they are applied in software.
+   * Service data is always matched in software, once the content of a token is complete.
+   *
+   * @since 2.1.0
+   */
+  filters?: Filter[];
+  /**
+   * Only reports tokens with any of the UUIDs.
+   *
+   * @since 2.1.0
+   */
+  uuids?: UUID[];
 }
 
 export enum BluetoothState {
@@ -157,9 +678,21 @@ export interface NearbyPlugin {
    * @since 1.0.0
    */
   reset(): Promise<void>;
+  /**
+   * Changes the namespace, scan mode, advertise mode or TX power level without stopping scanning and publishing.
+   * The new scan is started before the running one is stopped, each handover is reported with `onReconfigured`.
+   *
+   * @since 2.1.0
+   */
+  reconfigure(options: {
+    // A ReconfigureOptions object for this operation
+    options?: ReconfigureOptions;
+  }): Promise<void>;
 
   /**
    * Start publishing nearby token.
+   * Tokens with other UUIDs keep being published, publishing a token with the same UUID again replaces it.
+   * A publish still waiting to go on air is then rejected, as it has been replaced.
    *
    * @since 1.0.0
    */
@@ -169,12 +702,25 @@ export interface NearbyPlugin {
     // A PublishOptions object for this operation
     options?: PublishOptions;
   }): Promise<void>;
+  /**
+   * Replaces the content of a published token without stopping the publication, its options and time to live are kept.
+   * The UUID may be left out if only one token is published.
+   *
+   * @since 2.1.0
+   */
+  updatePublication(options: {
+    // The Message to publish instead
+    message: Partial<Message>;
+  }): Promise<void>;
   /**
    * Stop publishing nearby token.
    *
    * @since 1.0.0
    */
-  unpublish(): Promise<void>;
+  unpublish(options?: {
+    // Only stops publishing the token with this UUID.
+    uuid?: UUID;
+  }): Promise<void>;
 
   /**
    * Start listening to nearby tokens.
@@ -184,13 +730,17 @@ export interface NearbyPlugin {
   subscribe(options: {
     // A SubscribeOptions object for this operation
     options?: SubscribeOptions;
-  }): Promise<void>;
+  }): Promise<Subscription>;
   /**
    * Stop listening to nearby tokens.
+   * Ends only the given subscription if a handle is given, otherwise all of them.
    *
    * @since 1.0.0
    */
-  unsubscribe(): Promise<void>;
+  unsubscribe(options?: {
+    // The handle of a subscription to a namespace of its own.
+    handle?: number;
+  }): Promise<void>;
 
   /**
    * Returns status of operations and found tokens.
@@ -199,6 +749,36 @@ export interface NearbyPlugin {
    */
   status(): Promise<Status>;
 
+  /**
+   * Returns the found tokens added, removed and changed since a version returned before.
+   * Lists all found tokens instead if the version is not given or too many changes happened since.
+   *
+   * @since 2.1.0
+   */
+  statusSince(options: {
+    // The version returned by status or statusSince.
+    version?: number;
+  }): Promise<StatusDelta>;
+
+  /**
+   * Returns the recent sightings of a found message.
+   *
+   * @since 2.1.0
+   */
+  history(options: {
+    // The UUID of the message
+    uuid: UUID;
+    // Only returns sightings since this time, in milliseconds since the epoch.
+    sinceMillis?: number;
+  }): Promise<History>;
+
+  /**
+   * Returns counters of the work done by the plugin, with rates since the previous metrics.
+   *
+   * @since 2.1.0
+   */
+  getMetrics(): Promise<Metrics>;
+
   /**
    * Called when permission is granted or revoked for this app to use Nearby.
    *
@@ -237,6 +817,66 @@ export interface NearbyPlugin {
     listenerFunc: (uuid: UUID, content?: string) => void,
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
 
+  /**
+   * Called when the content of a message which has already been found has changed.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onUpdated',
+    listenerFunc: (uuid: UUID, content?: string) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called with the estimated distance of a found message, if `proximityIntervalMillis` is set.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onProximity',
+    listenerFunc: (proximity: Proximity) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called with the metrics every `metricsIntervalMillis`, if set.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onMetrics',
+    listenerFunc: (metrics: Metrics) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called with a frame of coalesced events if batching is enabled.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onBatch',
+    listenerFunc: (batch: Batch) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called when the adaptive scan mode has switched.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onScanModeChanged',
+    listenerFunc: (change: ScanModeChange) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called when a scan or a published token has been handed over to a new configuration.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onReconfigured',
+    listenerFunc: (event: Reconfigured) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
   /**
    * The published token has expired.
    *
@@ -244,7 +884,7 @@ export interface NearbyPlugin {
    */
   addListener(
     eventName: 'onPublishExpired',
-    listenerFunc: () => void,
+    listenerFunc: (event: PublishExpired) => void,
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
   /**
    * The subscription has expired.
@@ -253,6 +893,15 @@ export interface NearbyPlugin {
    */
   addListener(
     eventName: 'onSubscribeExpired',
-    listenerFunc: () => void,
+    listenerFunc: (event?: SubscribeExpired) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  /**
+   * A subscription to a namespace of its own has ended because scanning failed.
+   *
+   * @since 2.1.0
+   */
+  addListener(
+    eventName: 'onSubscribeFailed',
+    listenerFunc: (event: SubscribeFailed) => void,
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
 }
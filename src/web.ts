@@ -1,9 +1,15 @@
 import { WebPlugin } from '@capacitor/core';
 
 import type {
+  History,
   Message,
+  Metrics,
   Status,
+  StatusDelta,
+  Subscription,
+  UUID,
   InitializeOptions,
+  ReconfigureOptions,
   PublishOptions,
   SubscribeOptions,
   NearbyPlugin,
@@ -21,6 +27,13 @@ export class NearbyWeb extends WebPlugin implements NearbyPlugin {
     console.error('reset');
     throw this.unimplemented('Method not implemented.');
   }
+  async reconfigure(options: {
+    // A ReconfigureOptions object for this operation
+    options?: ReconfigureOptions;
+  }): Promise<void> {
+    console.error('reconfigure', options);
+    throw this.unimplemented('Method not implemented.');
+  }
 
   async publish(options: {
     // A Message to publish for nearby devices to see
@@ -31,22 +44,35 @@ export class NearbyWeb extends WebPlugin implements NearbyPlugin {
     console.error('publish', options);
     throw this.unimplemented('Method not implemented.');
   }
+  async updatePublication(options: {
+    // The Message to publish instead
+    message: Partial<Message>;
+  }): Promise<void> {
+    console.error('updatePublication', options);
+    throw this.unimplemented('Method not implemented.');
+  }
   // Cancels an existing published message.
-  async unpublish(): Promise<void> {
-    console.error('unpublish');
+  async unpublish(options?: {
+    // Only stops publishing the token with this UUID.
+    uuid?: UUID;
+  }): Promise<void> {
+    console.error('unpublish', options);
     throw this.unimplemented('Method not implemented.');
   }
 
   async subscribe(options: {
     // A SubscribeOptions object for this operation
     options?: SubscribeOptions;
-  }): Promise<void> {
+  }): Promise<Subscription> {
     console.error('subscribe', options);
     throw this.unimplemented('Method not implemented.');
   }
   // Cancels an existing subscription.
-  async unsubscribe(): Promise<void> {
-    console.error('unsubscribe');
+  async unsubscribe(options?: {
+    // The handle of a subscription to a namespace of its own.
+    handle?: number;
+  }): Promise<void> {
+    console.error('unsubscribe', options);
     throw this.unimplemented('Method not implemented.');
   }
 
@@ -54,6 +80,29 @@ export class NearbyWeb extends WebPlugin implements NearbyPlugin {
     console.error('status');
     throw this.unimplemented('Method not implemented.');
   }
+
+  async statusSince(options: {
+    // The version returned by status or statusSince.
+    version?: number;
+  }): Promise<StatusDelta> {
+    console.error('statusSince', options);
+    throw this.unimplemented('Method not implemented.');
+  }
+
+  async history(options: {
+    // The UUID of the message
+    uuid: UUID;
+    // Only returns sightings since this time.
+    sinceMillis?: number;
+  }): Promise<History> {
+    console.error('history', options);
+    throw this.unimplemented('Method not implemented.');
+  }
+
+  async getMetrics(): Promise<Metrics> {
+    console.error('getMetrics');
+    throw this.unimplemented('Method not implemented.');
+  }
 }
 
 const Nearby = new NearbyWeb();